@@ -0,0 +1,43 @@
+package bandautocut.clap.detect.benchmark;
+
+import bandautocut.clap.detect.ACDRClapDetect;
+import bandautocut.clap.detect.ClapDetectResult;
+import bandautocut.clap.detect.ClapDetectSimple;
+import bandautocut.clap.detect.LoudnessDetection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Clap detectors and loudness detection over whole synthetic tracks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "--add-modules=jdk.incubator.vector"})
+public class DetectionBenchmark {
+
+    @Benchmark
+    public ClapDetectResult acdrClapDetect(SyntheticClapTrack track, SampleCounter counter) {
+        counter.samples += track.samples.length;
+        return new ACDRClapDetect(track.buffer.duplicate(), new ACDRClapDetect.Parameters()).clapDetect(4);
+    }
+
+    @Benchmark
+    public ClapDetectResult simpleClapDetect(SyntheticClapTrack track, SampleCounter counter) {
+        counter.samples += track.samples.length;
+        return new ClapDetectSimple(track.buffer.duplicate()).clapDetect(4);
+    }
+
+    @Benchmark
+    public float suggestMultiplier(SyntheticClapTrack track, SampleCounter counter) {
+        counter.samples += track.samples.length;
+        return new LoudnessDetection().suggestMultiplier(track.buffer.duplicate());
+    }
+}
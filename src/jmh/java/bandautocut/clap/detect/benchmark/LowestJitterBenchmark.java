@@ -0,0 +1,59 @@
+package bandautocut.clap.detect.benchmark;
+
+import bandautocut.clap.detect.LowestJitter;
+import bandautocut.clap.detect.LowestJitterResult;
+import bandautocut.clap.detect.StreamingACDRClapDetect;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Jitter search over onset lists with one onset per beat of the synthetic tracks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LowestJitterBenchmark {
+
+    /** Track length in seconds: 1 minute, 1 hour and 4 hours. */
+    @Param({"60", "3600", "14400"})
+    public int seconds;
+
+    @Param({"4", "8"})
+    public int numberOfClaps;
+
+    private int[] claps;
+    private LowestJitter lowestJitter;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        Random random = new Random(42);
+        int beatLength = SyntheticClapTrack.SAMPLE_RATE / 2;
+        claps = new int[seconds * 2];
+        int position = 0;
+        for (int i = 0; i < claps.length; i++) {
+            position += beatLength + random.nextInt(400) - 200;
+            claps[i] = position;
+        }
+        lowestJitter = new LowestJitter(StreamingACDRClapDetect.MAX_CANDIDATES);
+    }
+
+    @Benchmark
+    public LowestJitterResult findLowestJitter() {
+        return lowestJitter.findLowestJitter(claps, claps.length, numberOfClaps);
+    }
+}
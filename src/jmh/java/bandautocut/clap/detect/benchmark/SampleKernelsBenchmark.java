@@ -0,0 +1,114 @@
+package bandautocut.clap.detect.benchmark;
+
+import bandautocut.clap.detect.SampleKernels;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The sample kernels on the Vector API against their scalar fallbacks, over multi-hour synthetic tracks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "--add-modules=jdk.incubator.vector"})
+public class SampleKernelsBenchmark {
+
+    /** Track length in seconds: 1 hour and 4 hours. */
+    @Param({"3600", "14400"})
+    public int seconds;
+
+    private short[] samples;
+    private int[] envelope;
+    private long[] blockSums;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        samples = SyntheticClapTrack.generate(seconds, 42);
+        envelope = new int[samples.length];
+        blockSums = new long[(samples.length >> 6) + 1];
+        if (!SampleKernels.isVectorized()) {
+            throw new IllegalStateException("The Vector API isn't available, so there's nothing to compare");
+        }
+    }
+
+    @Benchmark
+    public int peak(SampleCounter counter) {
+        counter.samples += samples.length;
+        return SampleKernels.peak(samples, 0, samples.length);
+    }
+
+    @Benchmark
+    public int peakScalar(SampleCounter counter) {
+        counter.samples += samples.length;
+        return SampleKernels.Scalar.peak(samples, 0, samples.length);
+    }
+
+    @Benchmark
+    public long absSum(SampleCounter counter) {
+        counter.samples += samples.length;
+        return SampleKernels.absSum(samples, 0, samples.length);
+    }
+
+    @Benchmark
+    public long absSumScalar(SampleCounter counter) {
+        counter.samples += samples.length;
+        return SampleKernels.Scalar.absSum(samples, 0, samples.length);
+    }
+
+    @Benchmark
+    public int[] absEnvelope(SampleCounter counter) {
+        counter.samples += samples.length;
+        SampleKernels.absEnvelope(samples, 0, samples.length, envelope, 0);
+        return envelope;
+    }
+
+    @Benchmark
+    public int[] absEnvelopeScalar(SampleCounter counter) {
+        counter.samples += samples.length;
+        SampleKernels.Scalar.absEnvelope(samples, 0, samples.length, envelope, 0);
+        return envelope;
+    }
+
+    @Benchmark
+    public long[] prefixSums(SampleCounter counter) {
+        counter.samples += samples.length;
+        SampleKernels.prefixSums(samples, 0, samples.length, 64, 0, blockSums, 0);
+        return blockSums;
+    }
+
+    /**
+     * Counts the sharp rises the way {@code ClapDetectSimple} looks for onsets.
+     */
+    @Benchmark
+    public int rises(SampleCounter counter) {
+        counter.samples += samples.length;
+        int count = 0;
+        for (int i = SampleKernels.firstRise(samples, 1, samples.length, 6551); i >= 0; i = SampleKernels.firstRise(samples, i + 1, samples.length, 6551)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int risesScalar(SampleCounter counter) {
+        counter.samples += samples.length;
+        int count = 0;
+        for (int i = SampleKernels.Scalar.firstRise(samples, 1, samples.length, 6551); i >= 0; i = SampleKernels.Scalar.firstRise(samples, i + 1, samples.length, 6551)) {
+            count++;
+        }
+        return count;
+    }
+}
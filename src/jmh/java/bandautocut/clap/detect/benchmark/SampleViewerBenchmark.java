@@ -0,0 +1,67 @@
+package bandautocut.clap.detect.benchmark;
+
+import bandautocut.clap.detect.SampleViewer;
+import bandautocut.clap.detect.ShortBufferSampleSource;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Headless paint of a 1920 pixel wide viewer with a reference and a subject track.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+public class SampleViewerBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 200;
+
+    /** Pixels per sample; 0 fits the whole track into the viewer width. */
+    @Param({"0", "0.01", "1"})
+    public float zoomFactor;
+
+    private SampleViewer viewer;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticClapTrack track) {
+        viewer = new SampleViewer();
+        viewer.addSampleSource(new ShortBufferSampleSource("Reference", track.buffer.duplicate(), 1));
+        viewer.addSampleSource(new ShortBufferSampleSource("Subject", track.buffer.duplicate(), 2));
+        float zoom = zoomFactor > 0 ? zoomFactor : WIDTH / (float) track.samples.length;
+        viewer.setZoomFactor(zoom, 0);
+        viewer.setSize(WIDTH, HEIGHT);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint(SampleCounter counter) {
+        viewer.paint(graphics);
+        counter.samples += (long) (WIDTH / viewer.getZoomFactor());
+        return image;
+    }
+}
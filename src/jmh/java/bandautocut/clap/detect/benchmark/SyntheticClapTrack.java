@@ -0,0 +1,64 @@
+package bandautocut.clap.detect.benchmark;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A generated 8 kHz recording: background noise, four claps after ten seconds, then percussive "music"
+ * with a beat every half second until the end.
+ */
+@State(Scope.Benchmark)
+public class SyntheticClapTrack {
+
+    public static final int SAMPLE_RATE = 8000;
+
+    /** Track length in seconds: 1 minute, 1 hour and 4 hours. */
+    @Param({"60", "3600", "14400"})
+    public int seconds;
+
+    public short[] samples;
+    public ShortBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        samples = generate(seconds, 42);
+        buffer = ShortBuffer.wrap(samples);
+    }
+
+    public static short[] generate(int seconds, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[seconds * SAMPLE_RATE];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (random.nextGaussian() * 600);
+        }
+
+        int clapGap = SAMPLE_RATE / 2;
+        for (int clap = 0; clap < 4; clap++) {
+            addHit(samples, 10 * SAMPLE_RATE + clap * clapGap + random.nextInt(40), 30000, 240);
+        }
+
+        for (int beat = 15 * SAMPLE_RATE; beat < samples.length; beat += clapGap + random.nextInt(400) - 200) {
+            addHit(samples, beat, 8000 + random.nextInt(16000), 1600);
+        }
+
+        return samples;
+    }
+
+    /**
+     * Adds an exponentially decaying burst of alternating polarity.
+     */
+    private static void addHit(short[] samples, int position, int amplitude, int decay) {
+        int end = Math.min(samples.length, position + decay * 6);
+        for (int i = position; i < end; i++) {
+            double envelope = amplitude * Math.exp(-(i - position) / (double) decay);
+            int value = samples[i] + (int) ((i & 1) == 0 ? envelope : -envelope);
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package bandautocut.clap.detect;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.nio.ShortBuffer;
+import java.util.Objects;
+import java.util.Properties;
 
 
 /**
@@ -8,27 +12,72 @@ import java.nio.ShortBuffer;
  * @see <a href="https://pub.tik.ee.ethz.ch/students/2013-FS/GA-2013-03.pdf">inspired by</a>
  */
 public class ACDRClapDetect implements ClapDetect {
-    
+
+    /** Distance from the last clap of the sequence to the reported position. */
+    static final double POSITION_ADVANCE_MILLIS = 700;
+
     private final ShortBuffer samples;
+    private final AnalysisContext context;
     private Parameters parameters;
 
     public ACDRClapDetect(ShortBuffer samples) {
-        this.samples = samples;
+        this(samples, new Parameters());
     }
     
     public ACDRClapDetect(ShortBuffer samples, Parameters parameters) {
+        this(samples, parameters, AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate the samples are at
+     */
+    public ACDRClapDetect(ShortBuffer samples, Parameters parameters, AnalysisContext context) {
         this.samples = samples;
         this.parameters = parameters;
+        this.context = context;
     }
     
+    /**
+     * Detection parameters. Durations are in milliseconds, and are converted to samples at the analysis rate with
+     * {@link #inSamples(AnalysisContext)}.
+     */
     public static class Parameters {
+        static final String THRESHOLD_CONSTANT_KEY = "clapdetect.threshold.constant";
+        static final String DECISION_THRESHOLD_KEY = "clapdetect.decision.threshold";
+        static final String SHORT_TERM_MILLIS_KEY = "clapdetect.shortterm.millis";
+        static final String LONG_TERM_MILLIS_KEY = "clapdetect.longterm.millis";
+        static final String MAX_CLAP_MILLIS_KEY = "clapdetect.clap.maxlength.millis";
+        static final String CLAP_ADVANCE_MILLIS_KEY = "clapdetect.clap.advance.millis";
+
+        // Durations used to be stored in samples at 8 kHz under these keys
+        static final String SHORT_TERM_DURATION_KEY = "clapdetect.shortterm.duration";
+        static final String LONG_TERM_DURATION_KEY = "clapdetect.longterm.duration";
+        static final String MAX_ALLOWED_CLAP_DURATION_KEY = "clapdetect.clap.maxlength";
+        static final String CLAP_ADVANCE_KEY = "clapdetect.clap.advance";
+        static final AnalysisContext LEGACY_CONTEXT = new AnalysisContext(AnalysisContext.DEFAULT_SAMPLE_RATE);
+
         private int thresholdConstant = (int) (Short.MAX_VALUE / 2.9);
         private int decisionThreshold = 10_000_000;
-        private int shortTermDuration = 5;
-        private int longTermDuration = 8000 * 20;
-        private int maxAllowedClapDuraton = 3;
+        private double shortTermMillis = 0.625;
+        private double longTermMillis = 20_000;
+        private double maxClapMillis = 0.375;
         private int clapsMax = 128;
-        private int clapAdvance = 8000 / 6;
+        private double clapAdvanceMillis = 1000 / 6.0;
+        private double maxAverageJitterMillis = 18.75;
+
+        public Parameters() {
+        }
+
+        public Parameters(Parameters other) {
+            thresholdConstant = other.thresholdConstant;
+            decisionThreshold = other.decisionThreshold;
+            shortTermMillis = other.shortTermMillis;
+            longTermMillis = other.longTermMillis;
+            maxClapMillis = other.maxClapMillis;
+            clapsMax = other.clapsMax;
+            clapAdvanceMillis = other.clapAdvanceMillis;
+            maxAverageJitterMillis = other.maxAverageJitterMillis;
+        }
 
         public int getThresholdConstant() {
             return thresholdConstant;
@@ -38,6 +87,10 @@ public class ACDRClapDetect implements ClapDetect {
             this.thresholdConstant = thresholdConstant;
         }
 
+        /**
+         * @return the clap likeliness a clap has to exceed, for samples at 8 kHz. It's scaled to other rates, since
+         * the likeliness divides by the clap's length in samples.
+         */
         public int getDecisionThreshold() {
             return decisionThreshold;
         }
@@ -46,28 +99,28 @@ public class ACDRClapDetect implements ClapDetect {
             this.decisionThreshold = decisionThreshold;
         }
 
-        public int getShortTermDuration() {
-            return shortTermDuration;
+        public double getShortTermMillis() {
+            return shortTermMillis;
         }
 
-        public void setShortTermDuration(int shortTermDuration) {
-            this.shortTermDuration = shortTermDuration;
+        public void setShortTermMillis(double shortTermMillis) {
+            this.shortTermMillis = shortTermMillis;
         }
 
-        public int getLongTermDuration() {
-            return longTermDuration;
+        public double getLongTermMillis() {
+            return longTermMillis;
         }
 
-        public void setLongTermDuration(int longTermDuration) {
-            this.longTermDuration = longTermDuration;
+        public void setLongTermMillis(double longTermMillis) {
+            this.longTermMillis = longTermMillis;
         }
 
-        public int getMaxAllowedClapDuraton() {
-            return maxAllowedClapDuraton;
+        public double getMaxClapMillis() {
+            return maxClapMillis;
         }
 
-        public void setMaxAllowedClapDuraton(int maxAllowedClapDuraton) {
-            this.maxAllowedClapDuraton = maxAllowedClapDuraton;
+        public void setMaxClapMillis(double maxClapMillis) {
+            this.maxClapMillis = maxClapMillis;
         }
 
         public int getClapsMax() {
@@ -78,103 +131,190 @@ public class ACDRClapDetect implements ClapDetect {
             this.clapsMax = clapsMax;
         }
 
-        public int getClapAdvance() {
-            return clapAdvance;
+        public double getClapAdvanceMillis() {
+            return clapAdvanceMillis;
         }
 
-        public void setClapAdvance(int clapAdvance) {
-            this.clapAdvance = clapAdvance;
+        public void setClapAdvanceMillis(double clapAdvanceMillis) {
+            this.clapAdvanceMillis = clapAdvanceMillis;
         }
-    }
 
-    @Override
-    public ClapDetectResult clapDetect(int numberOfClaps) {
-        ClapDetectResult result = new ClapDetectResult();
-        int[] clapPositions = new int[parameters.getClapsMax()];
-        int numberOfFoundClaps = 0;
-        
-        int maxVal = 0;
-        int clapDuration = 0;
-        int shortTermSamples = 0;
-        int shortTermSum = 0;
-        int longTermSamples = 0;
-        int longTermSum = 0;
-        for (int i = 0; i < samples.remaining() && numberOfFoundClaps < parameters.getClapsMax(); i++) {
-            int magnitude = Math.abs(samples.get(i));
-            
-            if (longTermSamples == parameters.getLongTermDuration()) {
-                longTermSum -= Math.abs(samples.get(i - longTermSamples));
-                longTermSamples--;
-            }
-            longTermSum += magnitude;
-            longTermSamples++;
-            int longTermMean = longTermSum / longTermSamples;
+        /**
+         * @return the highest average jitter at which a streaming detection is considered confirmed
+         */
+        public double getMaxAverageJitterMillis() {
+            return maxAverageJitterMillis;
+        }
+
+        public void setMaxAverageJitterMillis(double maxAverageJitterMillis) {
+            this.maxAverageJitterMillis = maxAverageJitterMillis;
+        }
 
-            if (shortTermSamples == parameters.getShortTermDuration()) {
-                shortTermSum -= Math.abs(samples.get(i - shortTermSamples));
-                shortTermSamples--;
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Parameters)) {
+                return false;
             }
-            shortTermSum += magnitude;
-            shortTermSamples++;
-            int shortTermMean = shortTermSum / shortTermSamples;
+            Parameters other = (Parameters) o;
+            return thresholdConstant == other.thresholdConstant
+                    && decisionThreshold == other.decisionThreshold
+                    && shortTermMillis == other.shortTermMillis
+                    && longTermMillis == other.longTermMillis
+                    && maxClapMillis == other.maxClapMillis
+                    && clapsMax == other.clapsMax
+                    && clapAdvanceMillis == other.clapAdvanceMillis
+                    && maxAverageJitterMillis == other.maxAverageJitterMillis;
+        }
 
-            int threshold = parameters.getThresholdConstant() + longTermMean;
+        @Override
+        public int hashCode() {
+            return Objects.hash(thresholdConstant, decisionThreshold, shortTermMillis, longTermMillis, maxClapMillis,
+                    clapsMax, clapAdvanceMillis, maxAverageJitterMillis);
+        }
 
-//            System.out.format("Means: %d s %d l\r", shortTermMean, longTermMean);
+        /**
+         * Converts the parameters to samples at the context's rate, once, for a detector to use.
+         */
+        public SampleParameters inSamples(AnalysisContext context) {
+            return new SampleParameters(this, context);
+        }
 
-            if (shortTermMean > threshold) {
-                if (maxVal == 0) {
-//                    System.out.format("Detect start: %d (%.2fs)\r", i, i / (float) 8000);
-                }
-                maxVal = Math.max(maxVal, shortTermMean - threshold);
-                if (++clapDuration > parameters.getMaxAllowedClapDuraton()) {
-//                    System.out.println("Clap too long at " + i);
-                    maxVal = 0;
-                    clapDuration = 0;
-                } else {
-                    int clapLikeliness = (maxVal * maxVal) / clapDuration;
-//                    System.out.format("Clap likeliness: %.2f %d (%.2fs)\r", clapLikeliness, i, i / (float) 8000);
-                    if (clapLikeliness > parameters.getDecisionThreshold()) {
-                        clapPositions[numberOfFoundClaps++] = i;
-//                        System.out.format("Detected clap: %d (%.2fs) likeliness=%d\r", i, i / (float) 8000, clapLikeliness);
-                        
-                        if (shortTermSamples > (clapDuration + 2)) {
-                            // Remove the clap's samples from the averages, to avoid interfering with future claps
-                            for (int j = i - (clapDuration + 2); j < i; j++) {
-                                int previousMagnitude = Math.abs(samples.get(j));
-                                longTermSum -= previousMagnitude;
-                                longTermSamples--;
-                                shortTermSum -= previousMagnitude;
-                                shortTermSamples--;
-                            }
-                        }
-                        
-                        i += parameters.getClapAdvance();
-                        clapDuration = 0;
-                        maxVal = 0;
-                    }
+        /**
+         * Reads parameters stored with {@link #toProperties()}, or durations stored in samples by older versions.
+         * Missing values keep their defaults.
+         */
+        public static Parameters fromProperties(Properties properties) {
+            Parameters parameters = new Parameters();
+            parameters.setThresholdConstant(intProperty(properties, THRESHOLD_CONSTANT_KEY, parameters.getThresholdConstant()));
+            parameters.setDecisionThreshold(intProperty(properties, DECISION_THRESHOLD_KEY, parameters.getDecisionThreshold()));
+            parameters.setShortTermMillis(millisProperty(properties, SHORT_TERM_MILLIS_KEY, SHORT_TERM_DURATION_KEY, parameters.getShortTermMillis()));
+            parameters.setLongTermMillis(millisProperty(properties, LONG_TERM_MILLIS_KEY, LONG_TERM_DURATION_KEY, parameters.getLongTermMillis()));
+            parameters.setMaxClapMillis(millisProperty(properties, MAX_CLAP_MILLIS_KEY, MAX_ALLOWED_CLAP_DURATION_KEY, parameters.getMaxClapMillis()));
+            parameters.setClapAdvanceMillis(millisProperty(properties, CLAP_ADVANCE_MILLIS_KEY, CLAP_ADVANCE_KEY, parameters.getClapAdvanceMillis()));
+            return parameters;
+        }
+
+        /**
+         * @return the tunable parameters, under the same keys the GUI keeps its preferences in
+         */
+        public Properties toProperties() {
+            Properties properties = new Properties();
+            properties.setProperty(THRESHOLD_CONSTANT_KEY, String.valueOf(thresholdConstant));
+            properties.setProperty(DECISION_THRESHOLD_KEY, String.valueOf(decisionThreshold));
+            properties.setProperty(SHORT_TERM_MILLIS_KEY, formatMillis(shortTermMillis));
+            properties.setProperty(LONG_TERM_MILLIS_KEY, formatMillis(longTermMillis));
+            properties.setProperty(MAX_CLAP_MILLIS_KEY, formatMillis(maxClapMillis));
+            properties.setProperty(CLAP_ADVANCE_MILLIS_KEY, formatMillis(clapAdvanceMillis));
+            return properties;
+        }
+
+        /**
+         * @return a duration with up to three decimals and no trailing zeros
+         */
+        static String formatMillis(double millis) {
+            return new BigDecimal(millis).setScale(3, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+        }
+
+        private static int intProperty(Properties properties, String key, int defaultValue) {
+            try {
+                return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+            } catch (NumberFormatException ex) {
+                return defaultValue;
+            }
+        }
+
+        private static double millisProperty(Properties properties, String key, String legacyKey, double defaultValue) {
+            try {
+                String value = properties.getProperty(key);
+                if (value != null) {
+                    return Double.parseDouble(value.trim());
                 }
-            } else {
-                if (maxVal > 0) {
-//                    System.out.format("Detect end: %d (%.2fs)\r", i, i / (float) 8000);
+                value = properties.getProperty(legacyKey);
+                if (value != null) {
+                    return LEGACY_CONTEXT.toMillis(Integer.parseInt(value.trim()));
                 }
-
-                maxVal = 0;
-                clapDuration = 0;
+            } catch (NumberFormatException ex) {
             }
+            return defaultValue;
         }
-        
-        if (numberOfFoundClaps < numberOfClaps) {
-            return result;
+    }
+
+    /**
+     * {@link Parameters} converted to samples at one analysis rate.
+     */
+    public static final class SampleParameters {
+        private final int thresholdConstant;
+        private final int decisionThreshold;
+        private final int shortTermDuration;
+        private final int longTermDuration;
+        private final int maxAllowedClapDuration;
+        private final int clapsMax;
+        private final int clapAdvance;
+        private final int maxAverageJitter;
+        private final int positionAdvance;
+
+        SampleParameters(Parameters parameters, AnalysisContext context) {
+            thresholdConstant = parameters.getThresholdConstant();
+            decisionThreshold = (int) Math.min(Integer.MAX_VALUE,
+                    (long) parameters.getDecisionThreshold() * AnalysisContext.DEFAULT_SAMPLE_RATE / context.getSampleRate());
+            shortTermDuration = Math.max(1, context.samples(parameters.getShortTermMillis()));
+            longTermDuration = Math.max(1, context.samples(parameters.getLongTermMillis()));
+            maxAllowedClapDuration = Math.max(1, context.samples(parameters.getMaxClapMillis()));
+            clapsMax = parameters.getClapsMax();
+            clapAdvance = context.samples(parameters.getClapAdvanceMillis());
+            maxAverageJitter = context.samples(parameters.getMaxAverageJitterMillis());
+            positionAdvance = context.samples(POSITION_ADVANCE_MILLIS);
         }
 
-        LowestJitterResult jitterResult = new LowestJitter().findLowestJitter(clapPositions, numberOfFoundClaps, numberOfClaps);
-        result.setAverageJitter(jitterResult.getAverageJitter());
-        result.setBestPosition(jitterResult.getBestPosition());
+        public int getThresholdConstant() {
+            return thresholdConstant;
+        }
 
-        result.setBestPosition(result.getBestPosition() + 5600);
-        
-        return result;
+        public int getDecisionThreshold() {
+            return decisionThreshold;
+        }
+
+        public int getShortTermDuration() {
+            return shortTermDuration;
+        }
+
+        public int getLongTermDuration() {
+            return longTermDuration;
+        }
+
+        public int getMaxAllowedClapDuration() {
+            return maxAllowedClapDuration;
+        }
+
+        public int getClapsMax() {
+            return clapsMax;
+        }
+
+        public int getClapAdvance() {
+            return clapAdvance;
+        }
+
+        public int getMaxAverageJitter() {
+            return maxAverageJitter;
+        }
+
+        /**
+         * @return the distance from the last clap of a sequence to the reported position
+         */
+        public int getPositionAdvance() {
+            return positionAdvance;
+        }
+    }
+
+    @Override
+    public ClapDetectResult clapDetect(int numberOfClaps) {
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(parameters, numberOfClaps, context);
+        detector.setStopWhenConfirmed(false);
+        detector.samplesDecoded(samples.duplicate());
+        return detector.getResult();
     }
 
     public Parameters getParameters() {
@@ -0,0 +1,43 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Aligns a subject recording to a reference recording by cross-correlation, without relying on claps.
+ */
+public class AlignMain {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            exitUsage();
+        }
+
+        int referenceStartSeconds = 0;
+        if (args.length > 2) {
+            try {
+                referenceStartSeconds = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                exitUsage();
+            }
+        }
+
+        AnalysisContext context = AnalysisContext.defaultContext();
+        AudioResampler resampler = new AudioResampler();
+        ShortBuffer reference = resampler.resampleAudio(args[0], 1, context.getSampleRate()).asShortBuffer();
+        ShortBuffer subject = resampler.resampleAudio(args[1], 1, context.getSampleRate()).asShortBuffer();
+
+        long start = System.nanoTime();
+        AlignmentResult result = new CrossCorrelationAligner(context).align(reference, subject);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("Lag: %d samples (%.3f seconds)\n", result.getLag(), context.seconds(result.getLag()));
+        System.out.printf("Confidence: %.3f, peak ratio: %.2f (%d ms)\n", result.getConfidence(), result.getPeakRatio(), elapsedMillis);
+        int position = result.subjectPositionFor(context.samplesForSeconds(referenceStartSeconds));
+        System.out.printf("Cut position: %d (%.2f seconds)\n", position, context.seconds(position));
+    }
+
+    private static void exitUsage() {
+        System.err.println("Usage: java -cp clap-detect.jar bandautocut.clap.detect.AlignMain <reference file> <subject file> [reference start seconds]");
+        System.exit(64); // EX_USAGE
+    }
+}
@@ -0,0 +1,47 @@
+package bandautocut.clap.detect;
+
+/**
+ * Result of aligning a subject recording against a reference recording.
+ */
+public class AlignmentResult {
+
+    /** Subject sample {@code s} lines up with reference sample {@code s + lag}. */
+    private int lag;
+
+    /** Normalized correlation at the best lag, from 0 (unrelated) to 1 (identical waveforms). */
+    private double confidence;
+
+    /** How much the best peak stands out from the best peak elsewhere in the search window. */
+    private double peakRatio;
+
+    public int getLag() {
+        return lag;
+    }
+
+    public void setLag(int lag) {
+        this.lag = lag;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    public double getPeakRatio() {
+        return peakRatio;
+    }
+
+    public void setPeakRatio(double peakRatio) {
+        this.peakRatio = peakRatio;
+    }
+
+    /**
+     * @return the subject position that lines up with the given reference position
+     */
+    public int subjectPositionFor(int referencePosition) {
+        return referencePosition - lag;
+    }
+}
@@ -0,0 +1,97 @@
+package bandautocut.clap.detect;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * The sample rate audio is analysed at, and conversions between its samples and time.
+ * <p>
+ * Detection, alignment and playback all work on mono 16-bit audio decoded at this rate. Detector parameters are
+ * given in time and converted to samples with {@link ACDRClapDetect.Parameters#inSamples(AnalysisContext)}, so a
+ * lower rate can be used for a quick pass over long recordings, or a higher one for precision.
+ */
+public final class AnalysisContext {
+
+    public static final int DEFAULT_SAMPLE_RATE = 8000;
+
+    /** The default rate, which can be changed with {@code -Dclapdetect.analysis.rate=<Hz>}. */
+    private static final AnalysisContext DEFAULT = new AnalysisContext(
+            Integer.getInteger("clapdetect.analysis.rate", DEFAULT_SAMPLE_RATE));
+
+    private final int sampleRate;
+
+    public AnalysisContext(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the context for the default analysis rate
+     */
+    public static AnalysisContext defaultContext() {
+        return DEFAULT;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the nearest number of samples to a duration
+     */
+    public int samples(double millis) {
+        return (int) Math.round(millis * sampleRate / 1000);
+    }
+
+    /**
+     * @return the number of samples in a whole number of milliseconds, rounded down
+     */
+    public long samplesForMillis(long millis) {
+        return millis * sampleRate / 1000;
+    }
+
+    /**
+     * @return the number of samples in a duration, rounded down
+     */
+    public int samplesForSeconds(double seconds) {
+        return (int) (seconds * sampleRate);
+    }
+
+    /**
+     * @return the time at a sample position, in whole milliseconds, rounded down
+     */
+    public long millis(long samples) {
+        return samples * 1000 / sampleRate;
+    }
+
+    /**
+     * @return the duration of a number of samples in milliseconds
+     */
+    public double toMillis(double samples) {
+        return samples * 1000 / sampleRate;
+    }
+
+    public double seconds(long samples) {
+        return samples / (double) sampleRate;
+    }
+
+    /**
+     * @return a position at another context's rate, moved to this rate
+     */
+    public int convert(int samples, AnalysisContext from) {
+        return from.sampleRate == sampleRate ? samples : (int) Math.round((double) samples * sampleRate / from.sampleRate);
+    }
+
+    /**
+     * @return the format for playing mono 16-bit samples at this rate
+     */
+    public AudioFormat audioFormat(boolean bigEndian) {
+        return new AudioFormat(sampleRate, 16, 1, true, bigEndian);
+    }
+
+    @Override
+    public String toString() {
+        return sampleRate + " Hz";
+    }
+}
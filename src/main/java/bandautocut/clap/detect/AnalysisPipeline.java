@@ -0,0 +1,288 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs several analysis stages over a decode in one pass, each on its own thread.
+ * <p>
+ * Attach the pipeline to a decode as its {@link SampleStreamListener}. Decoded samples are copied once into chunks
+ * taken from a small pool, and every stage is handed every chunk in stream order while it is still in cache. A chunk
+ * goes back to the pool when the slowest stage is done with it, and the decoder waits for a free chunk, so a slow
+ * stage holds the decoder back instead of letting samples pile up. Call {@link #finish()} once the decode returns;
+ * every stage has seen the whole stream when it returns.
+ * <p>
+ * A stage that returns {@code false} is sent no more samples and stops the decode, as it would if it was the
+ * decoder's only listener.
+ */
+public class AnalysisPipeline implements SampleStreamListener {
+
+    public static final int DEFAULT_CHUNK_SAMPLES = 16384;
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    private static final Chunk END = new Chunk(0, 0);
+
+    private final String name;
+    private final int chunkSamples;
+    private final int poolSize;
+    private final List<Stage> stages = new ArrayList<>();
+
+    private BlockingQueue<Chunk> free;
+    private boolean started;
+    private boolean finished;
+    private volatile boolean stopRequested;
+    private volatile boolean cancelled;
+    private volatile RuntimeException failure;
+
+    /**
+     * @param name prefix for the names of the stage threads
+     */
+    public AnalysisPipeline(String name) {
+        this(name, DEFAULT_CHUNK_SAMPLES, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param chunkSamples how many samples each chunk holds
+     * @param poolSize how many chunks can be in the pipeline at once, which is as far as the slowest stage can fall
+     * behind the decoder
+     */
+    public AnalysisPipeline(String name, int chunkSamples, int poolSize) {
+        this.name = name;
+        this.chunkSamples = chunkSamples;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Adds a stage. Stages can only be added before the first samples arrive.
+     * @return the stage, to read its results from once the pipeline has finished
+     */
+    public <T extends SampleStreamListener> T addStage(String stageName, T listener) {
+        if (started) {
+            throw new IllegalStateException("Stages must be added before the pipeline starts");
+        }
+        stages.add(new Stage(stageName, listener, stages.size()));
+        return listener;
+    }
+
+    private void start() {
+        started = true;
+        free = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            free.add(new Chunk(chunkSamples, stages.size()));
+        }
+        for (Stage stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    @Override
+    public boolean samplesDecoded(ShortBuffer samples) {
+        if (stages.isEmpty()) {
+            return true;
+        }
+        if (!started) {
+            start();
+        }
+        int end = samples.limit();
+        for (int from = samples.position(); from < end && !stopRequested; ) {
+            Chunk chunk = takeFreeChunk();
+            if (chunk == null) {
+                return false;
+            }
+            int length = Math.min(chunkSamples, end - from);
+            samples.get(from, chunk.samples, 0, length);
+            chunk.length = length;
+            chunk.pending.set(stages.size());
+            for (Stage stage : stages) {
+                stage.queue.add(chunk);
+            }
+            from += length;
+        }
+        return !stopRequested;
+    }
+
+    /**
+     * @return a chunk once one is free, or {@code null} if the pipeline stopped while waiting
+     */
+    private Chunk takeFreeChunk() {
+        try {
+            while (!stopRequested) {
+                Chunk chunk = free.poll(100, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    return chunk;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cancel();
+        }
+        return null;
+    }
+
+    private void release(Chunk chunk) {
+        if (chunk.pending.decrementAndGet() == 0) {
+            free.add(chunk);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until every stage has taken in all the samples handed to the pipeline so far, so their results can be read
+     * part way through a decode, from the decoding thread.
+     */
+    public void drain() {
+        if (!started) {
+            return;
+        }
+        synchronized (this) {
+            while (free.size() < poolSize && !cancelled && failure == null) {
+                try {
+                    wait(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for " + name + " analysis", ex);
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Ends the stream and waits for every stage to finish with it.
+     * @throws IllegalStateException if a stage failed
+     */
+    public void finish() {
+        if (finished) {
+            checkFailure();
+            return;
+        }
+        finished = true;
+        if (!started) {
+            return;
+        }
+        for (Stage stage : stages) {
+            stage.queue.add(END);
+        }
+        try {
+            for (Stage stage : stages) {
+                stage.thread.join();
+            }
+        } catch (InterruptedException ex) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + name + " analysis", ex);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Runs a decode that feeds this pipeline, then finishes the pipeline, or cancels it if the decode fails.
+     * @return what the decode returned
+     */
+    public <T> T process(Supplier<T> decode) {
+        T decoded;
+        try {
+            decoded = decode.get();
+        } catch (RuntimeException ex) {
+            cancel();
+            throw ex;
+        }
+        finish();
+        return decoded;
+    }
+
+    /**
+     * Stops the stages without waiting for them, and asks the decoder to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+        stopRequested = true;
+        for (Stage stage : stages) {
+            stage.thread.interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return whether a stage asked for the decode to stop, failed, or the pipeline was cancelled
+     */
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    private static class Chunk {
+        private final short[] samples;
+        /** One view per stage, so stages can't move each other's position. */
+        private final ShortBuffer[] views;
+        private final AtomicInteger pending = new AtomicInteger();
+        private int length;
+
+        Chunk(int size, int stageCount) {
+            samples = new short[size];
+            views = new ShortBuffer[stageCount];
+            for (int i = 0; i < stageCount; i++) {
+                views[i] = ShortBuffer.wrap(samples);
+            }
+        }
+    }
+
+    private class Stage implements Runnable {
+        private final String stageName;
+        private final SampleStreamListener listener;
+        private final int index;
+        /** Room for the whole pool and the end of the stream, so handing out a chunk never blocks. */
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(poolSize + 1);
+        private final Thread thread;
+
+        Stage(String stageName, SampleStreamListener listener, int index) {
+            this.stageName = stageName;
+            this.listener = listener;
+            this.index = index;
+            thread = new Thread(this, name + "-" + stageName);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            boolean wanted = true;
+            try {
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == END) {
+                        return;
+                    }
+                    try {
+                        if (wanted && failure == null) {
+                            ShortBuffer view = chunk.views[index];
+                            view.clear().limit(chunk.length);
+                            if (!listener.samplesDecoded(view)) {
+                                wanted = false;
+                                stopRequested = true;
+                            }
+                        }
+                    } catch (RuntimeException ex) {
+                        failure = new IllegalStateException("Analysis stage " + stageName + " failed", ex);
+                        stopRequested = true;
+                    } finally {
+                        release(chunk);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                // Cancelled
+            }
+        }
+    }
+}
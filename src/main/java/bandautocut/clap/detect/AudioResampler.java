@@ -1,30 +1,80 @@
 package bandautocut.clap.detect;
 
-import com.github.kokorin.jaffree.ffmpeg.ChannelOutput;
-import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
-import com.github.kokorin.jaffree.ffmpeg.FFmpegResult;
-import com.github.kokorin.jaffree.ffmpeg.UrlInput;
 import java.nio.ByteBuffer;
-import java.nio.file.Path;
-import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import java.nio.ShortBuffer;
 
 /**
  *
  */
 public class AudioResampler {
-    
+
+    private final MediaProbe mediaProbe;
+    private final DecodedAudioCache cache;
+
+    public AudioResampler() {
+        this(new MediaProbe(), DecodedAudioCache.defaultCache());
+    }
+
+    /**
+     * @param cache the cache of decoded audio to use, or {@code null} to always decode
+     */
+    public AudioResampler(MediaProbe mediaProbe, DecodedAudioCache cache) {
+        this.mediaProbe = mediaProbe;
+        this.cache = cache;
+    }
+
     public ByteBuffer resampleAudio(String inputPath, int numberOfChannels, int sampleRate) {
-        SeekableInMemoryByteChannel byteChannel = new SeekableInMemoryByteChannel();
-        FFmpegResult result = FFmpeg.atPath()
-                .addInput(UrlInput.fromPath(Path.of(inputPath)))
-                .addArgument("-vn") // no video
-                .addArguments("-ac", String.valueOf(numberOfChannels))
-                .addArguments("-ar", String.valueOf(sampleRate))
-                .addArguments("-f", "s16le")
-                .addArguments("-acodec", "pcm_s16le")
-                .addOutput(ChannelOutput.toChannel("out.raw", byteChannel))
+        return resampleAudio(inputPath, numberOfChannels, sampleRate, null);
+    }
+
+    /**
+     * Decodes the audio of the input, handing each decoded block to the listener as it arrives.
+     * When the listener returns {@code false}, ffmpeg is stopped and the audio decoded up to that point is returned.
+     * @param listener the listener to receive decoded samples, or {@code null}
+     * @return the decoded s16le audio, in a direct little endian buffer
+     */
+    public ByteBuffer resampleAudio(String inputPath, int numberOfChannels, int sampleRate, SampleStreamListener listener) {
+        return createJob(inputPath, numberOfChannels, sampleRate)
+                .setListener(listener)
                 .execute();
-        System.out.println("Audio Size: " + result.getAudioSize());
-        return ByteBuffer.wrap(byteChannel.array(), 0, (int) byteChannel.size());
+    }
+
+    /**
+     * Decodes a window of the input's audio.
+     * @param durationMillis the length of the window, or -1 to decode to the end
+     * @return the decoded s16le audio, in a direct little endian buffer
+     */
+    public ByteBuffer resampleRange(String inputPath, int numberOfChannels, int sampleRate, long startMillis, long durationMillis) {
+        return createJob(inputPath, numberOfChannels, sampleRate)
+                .setRange(startMillis, durationMillis)
+                .execute();
+    }
+
+    /**
+     * Decodes a window of the input as mono at the analysis rate, placed at its position in the whole recording.
+     */
+    public ShortBufferSampleSource decodeWindow(String name, String inputPath, long startMillis, long durationMillis, AnalysisContext context) {
+        ShortBuffer samples = resampleRange(inputPath, 1, context.getSampleRate(), startMillis, durationMillis).asShortBuffer();
+        ShortBufferSampleSource source = new ShortBufferSampleSource(name, samples, 1);
+        source.setStart((int) context.samplesForMillis(startMillis));
+        return source;
+    }
+
+    /**
+     * Creates a decode of the start of the input, which grows until a check on the decoded audio passes.
+     */
+    public ProgressiveDecode createProgressiveDecode(String inputPath, int numberOfChannels, int sampleRate) {
+        return new ProgressiveDecode(this, inputPath, numberOfChannels, sampleRate);
+    }
+
+    /**
+     * Creates a decode that can be run on another thread, reports progress and can be cancelled.
+     */
+    public DecodeJob createJob(String inputPath, int numberOfChannels, int sampleRate) {
+        return new DecodeJob(mediaProbe, cache, inputPath, numberOfChannels, sampleRate);
+    }
+
+    public MediaProbe getMediaProbe() {
+        return mediaProbe;
     }
 }
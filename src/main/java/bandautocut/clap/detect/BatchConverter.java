@@ -0,0 +1,351 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aligns and cuts a list of subject recordings against one reference.
+ * <p>
+ * Each subject goes through decode, detect and encode stages, each on its own executor, so a subject can be
+ * encoding while the next one is still decoding. The reference is decoded once and is only needed by subjects
+ * whose claps can't be found, which are aligned by cross-correlation instead.
+ */
+public class BatchConverter {
+
+    private static final int NUMBER_OF_CLAPS = 4;
+
+    private final AudioResampler resampler;
+    private final ACDRClapDetect.Parameters parameters = new ACDRClapDetect.Parameters();
+    private final VideoCutter cutter;
+
+    private int decodeThreads = 2;
+    private int detectThreads = Runtime.getRuntime().availableProcessors();
+    private int encodeThreads = 1;
+    private Path outputDirectory;
+    private boolean encode = true;
+    private AnalysisContext context = AnalysisContext.defaultContext();
+    private double referenceStartSeconds = -1;
+    private boolean allChannels;
+    private boolean refineOnset = true;
+
+    public BatchConverter() {
+        this(new AudioResampler());
+    }
+
+    public BatchConverter(AudioResampler resampler) {
+        this.resampler = resampler;
+        this.cutter = new VideoCutter(resampler.getMediaProbe());
+    }
+
+    /**
+     * Processes all subjects and waits for them to finish. A failure in one subject is recorded in its result and
+     * doesn't stop the others.
+     * @return the results, in the same order as the subjects
+     */
+    public List<BatchResult> run(Path reference, List<Path> subjects) {
+        ExecutorService decodeExecutor = Executors.newFixedThreadPool(decodeThreads, threadFactory("decode"));
+        ExecutorService detectExecutor = Executors.newFixedThreadPool(detectThreads, threadFactory("detect"));
+        ExecutorService encodeExecutor = Executors.newFixedThreadPool(encodeThreads, threadFactory("encode"));
+        try {
+            CompletableFuture<Reference> referenceFuture = CompletableFuture.supplyAsync(() -> decodeReference(reference), decodeExecutor);
+
+            List<CompletableFuture<BatchResult>> futures = new ArrayList<>(subjects.size());
+            for (Path subject : subjects) {
+                BatchResult result = new BatchResult(subject);
+                futures.add(CompletableFuture.supplyAsync(() -> decode(subject), decodeExecutor)
+                        .thenComposeAsync(decoded -> detect(decoded, result, referenceFuture, detectExecutor), detectExecutor)
+                        .thenApplyAsync(this::encode, encodeExecutor)
+                        .exceptionally(ex -> {
+                            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                            System.err.println(subject.getFileName() + ": " + cause.getMessage());
+                            result.setError(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+                            return result;
+                        }));
+            }
+
+            List<BatchResult> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<BatchResult> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        } finally {
+            decodeExecutor.shutdownNow();
+            detectExecutor.shutdownNow();
+            encodeExecutor.shutdownNow();
+        }
+    }
+
+    private Reference decodeReference(Path path) {
+        // Subjects without claps are correlated against the whole reference, so it is decoded in full, and cached
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(parameters, NUMBER_OF_CLAPS, context);
+        detector.setStopWhenConfirmed(false);
+        AnalysisPipeline pipeline = new AnalysisPipeline("batch-reference");
+        if (referenceStartSeconds < 0) {
+            pipeline.addStage("claps", samples -> {
+                // Running out of room for claps mustn't cut the decode short either
+                detector.samplesDecoded(samples);
+                return true;
+            });
+        }
+        ShortBuffer samples = pipeline.process(() -> resampler.resampleAudio(path.toString(), 1, context.getSampleRate(), pipeline)).asShortBuffer();
+        int start = referenceStartSeconds >= 0 ? context.samplesForSeconds(referenceStartSeconds) : -1;
+        if (start < 0) {
+            ClapDetectResult claps = detector.getResult();
+            if (claps.getBestPosition() > 0 && claps.getAverageJitter() <= context.samples(parameters.getMaxAverageJitterMillis())) {
+                start = claps.getBestPosition();
+                if (refineOnset) {
+                    OnsetRefiner.Onset onset = new OnsetRefiner(resampler, context).refine(path.toString(), claps.getClapIndex());
+                    if (onset != null) {
+                        start = onset.getPosition();
+                    }
+                }
+            } else {
+                System.err.println("Claps not found in the reference, correlated subjects will start at its beginning");
+                start = 0;
+            }
+        }
+        System.out.printf("Reference %s: start %d (%.2f seconds)\n", path.getFileName(), start, context.seconds(start));
+        return new Reference(samples, start);
+    }
+
+    private Decoded decode(Path subject) {
+        if (allChannels) {
+            int channels = resampler.getMediaProbe().probeAudioChannels(subject.toString());
+            if (channels > 1) {
+                // Blocks of interleaved samples at the combined rate still cover the same time, across all channels
+                StreamingLoudness loudness = new StreamingLoudness(new AnalysisContext(context.getSampleRate() * channels));
+                ShortBuffer samples = resampler.resampleAudio(subject.toString(), channels, context.getSampleRate(), loudness).asShortBuffer();
+                return new Decoded(samples, channels, null, loudness);
+            }
+        }
+        // Detection and loudness run next to the decode, on threads of their own
+        AnalysisPipeline pipeline = new AnalysisPipeline("batch-" + subject.getFileName());
+        StreamingACDRClapDetect detector = pipeline.addStage("claps", new StreamingACDRClapDetect(parameters, NUMBER_OF_CLAPS, context));
+        detector.setStopWhenConfirmed(true);
+        StreamingLoudness loudness = pipeline.addStage("loudness", new StreamingLoudness(context));
+        ShortBuffer samples = pipeline.process(() -> resampler.resampleAudio(subject.toString(), 1, context.getSampleRate(), pipeline)).asShortBuffer();
+        return new Decoded(samples, 1, detector, loudness);
+    }
+
+    private CompletableFuture<BatchResult> detect(Decoded decoded, BatchResult result, CompletableFuture<Reference> referenceFuture, ExecutorService detectExecutor) {
+        ClapDetectResult claps;
+        boolean confirmed;
+        LoudnessDetection loudnessDetection = new LoudnessDetection(context);
+        // A mono subject's loudness is only complete if the detector didn't stop the decode, which is when it's used
+        ACDRClapDetect.Parameters adapted = loudnessDetection.adaptParameters(parameters, decoded.loudness);
+        if (decoded.detector != null) {
+            claps = decoded.detector.getResult();
+            confirmed = decoded.detector.isConfirmed();
+            if (!confirmed && adapted != parameters) {
+                // A quiet subject, so search it again with thresholds lowered to its level
+                System.out.printf("%s: %s, detecting again with gain %.2f\n", result.getSubject().getFileName(),
+                        decoded.loudness, loudnessDetection.suggestMultiplier(decoded.loudness));
+                claps = new ACDRClapDetect(decoded.samples, adapted, context).clapDetect(NUMBER_OF_CLAPS);
+                confirmed = claps.getAverageJitter() <= context.samples(parameters.getMaxAverageJitterMillis());
+            }
+        } else {
+            claps = new MultiChannelClapDetect(decoded.samples, decoded.numberOfChannels, adapted, context).clapDetect(NUMBER_OF_CLAPS);
+            confirmed = claps.getAverageJitter() <= context.samples(parameters.getMaxAverageJitterMillis());
+        }
+        result.setTotalJitter(claps.getTotalJitter());
+        result.setAverageJitter(claps.getAverageJitter());
+        if (confirmed && claps.getBestPosition() > 0) {
+            int position = claps.getBestPosition();
+            if (refineOnset) {
+                OnsetRefiner.Onset onset = new OnsetRefiner(resampler, context).refine(result.getSubject().toString(), claps.getClapIndex());
+                if (onset != null) {
+                    position = onset.getPosition();
+                    result.setOnsetSeconds(onset.getOnsetSeconds());
+                    result.setOnsetFrame(onset.getOnsetFrame());
+                }
+            }
+            result.setMethod(BatchResult.METHOD_CLAPS);
+            result.setPosition(position, context);
+            System.out.printf("%s: claps at %.2f seconds, average jitter %d\n",
+                    result.getSubject().getFileName(), context.seconds(position), claps.getAverageJitter());
+            return CompletableFuture.completedFuture(result);
+        }
+
+        // The decode wasn't stopped early, so the subject's samples are complete
+        return referenceFuture.thenApplyAsync(reference -> {
+            ShortBuffer subject = decoded.numberOfChannels > 1
+                    ? MultiChannelClapDetect.downmix(decoded.samples, decoded.numberOfChannels)
+                    : decoded.samples;
+            AlignmentResult alignment = new CrossCorrelationAligner(context).align(reference.samples.duplicate(), subject);
+            int position = alignment.subjectPositionFor(reference.start);
+            if (position < 0) {
+                throw new IllegalStateException("Subject starts after the reference start");
+            }
+            result.setMethod(BatchResult.METHOD_CORRELATION);
+            result.setPosition(position, context);
+            result.setConfidence(alignment.getConfidence());
+            System.out.printf("%s: claps not found, correlated to %.2f seconds (confidence %.3f)\n",
+                    result.getSubject().getFileName(), context.seconds(position), alignment.getConfidence());
+            return result;
+        }, detectExecutor);
+    }
+
+    private BatchResult encode(BatchResult result) {
+        if (!encode) {
+            return result;
+        }
+        Path subject = result.getSubject();
+        Path directory = outputDirectory != null ? outputDirectory : subject.toAbsolutePath().getParent();
+        Path output = directory.resolve(subject.getFileName().toString().replaceAll("\\..+$", "") + "_auto.mp4");
+        System.out.println("Encoding " + output);
+        cutter.cut(subject, output, context.millis(result.getPosition()), null);
+        result.setOutput(output);
+        return result;
+    }
+
+    private static ThreadFactory threadFactory(String stage) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "batch-" + stage + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public int getDetectThreads() {
+        return detectThreads;
+    }
+
+    public void setDetectThreads(int detectThreads) {
+        this.detectThreads = detectThreads;
+    }
+
+    public int getEncodeThreads() {
+        return encodeThreads;
+    }
+
+    public void setEncodeThreads(int encodeThreads) {
+        this.encodeThreads = encodeThreads;
+    }
+
+    /**
+     * @return where cut videos are written, or {@code null} to write them next to their subjects
+     */
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public void setOutputDirectory(Path outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public boolean isEncode() {
+        return encode;
+    }
+
+    public void setEncode(boolean encode) {
+        this.encode = encode;
+    }
+
+    /**
+     * @return the time in the reference that correlated subjects are cut to, or -1 to use the reference's claps
+     */
+    public double getReferenceStartSeconds() {
+        return referenceStartSeconds;
+    }
+
+    public void setReferenceStartSeconds(double referenceStartSeconds) {
+        this.referenceStartSeconds = referenceStartSeconds;
+    }
+
+    public AnalysisContext getAnalysisContext() {
+        return context;
+    }
+
+    /**
+     * @param context the rate to decode and detect at
+     */
+    public void setAnalysisContext(AnalysisContext context) {
+        this.context = context;
+    }
+
+    /**
+     * @return whether the claps are looked for on each channel separately
+     */
+    public boolean isAllChannels() {
+        return allChannels;
+    }
+
+    public void setAllChannels(boolean allChannels) {
+        this.allChannels = allChannels;
+    }
+
+    public boolean isRefineOnset() {
+        return refineOnset;
+    }
+
+    /**
+     * @param refineOnset whether to find the exact onset of detected claps at the input's own sample rate
+     */
+    public void setRefineOnset(boolean refineOnset) {
+        this.refineOnset = refineOnset;
+    }
+
+    public boolean isSmartCut() {
+        return cutter.isSmartCut();
+    }
+
+    /**
+     * @param smartCut whether to copy the video of 1080p subjects after their first keyframe instead of converting it
+     */
+    public void setSmartCut(boolean smartCut) {
+        cutter.setSmartCut(smartCut);
+    }
+
+    public int getSegments() {
+        return cutter.getSegments();
+    }
+
+    /**
+     * @param segments how many segments to encode each subject's video in at once, or 1 to use a single process
+     */
+    public void setSegments(int segments) {
+        cutter.setSegments(segments);
+    }
+
+    private static class Reference {
+        private final ShortBuffer samples;
+        private final int start;
+
+        Reference(ShortBuffer samples, int start) {
+            this.samples = samples;
+            this.start = start;
+        }
+    }
+
+    private static class Decoded {
+        private final ShortBuffer samples;
+        private final int numberOfChannels;
+        /** The detector that ran during the decode, or {@code null} if the channels are to be searched separately. */
+        private final StreamingACDRClapDetect detector;
+        private final StreamingLoudness loudness;
+
+        Decoded(ShortBuffer samples, int numberOfChannels, StreamingACDRClapDetect detector, StreamingLoudness loudness) {
+            this.samples = samples;
+            this.numberOfChannels = numberOfChannels;
+            this.detector = detector;
+            this.loudness = loudness;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Aligns and cuts a directory or list of subject recordings against one reference, without any prompts.
+ */
+public class BatchMain {
+
+    public static void main(String[] args) throws IOException {
+        BatchConverter converter = new BatchConverter();
+        Path reportPath = null;
+        List<String> positional = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--output-dir" -> converter.setOutputDirectory(Path.of(args[++i]));
+                    case "--report" -> reportPath = Path.of(args[++i]);
+                    case "--reference-start" -> converter.setReferenceStartSeconds(Double.parseDouble(args[++i]));
+                    case "--decode-threads" -> converter.setDecodeThreads(positive(args[++i]));
+                    case "--detect-threads" -> converter.setDetectThreads(positive(args[++i]));
+                    case "--encode-threads" -> converter.setEncodeThreads(positive(args[++i]));
+                    case "--no-encode" -> converter.setEncode(false);
+                    case "--analysis-rate" -> converter.setAnalysisContext(new AnalysisContext(positive(args[++i])));
+                    case "--all-channels" -> converter.setAllChannels(true);
+                    case "--no-refine" -> converter.setRefineOnset(false);
+                    case "--smart-cut" -> converter.setSmartCut(true);
+                    case "--segments" -> converter.setSegments(positive(args[++i]));
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            exitUsage();
+                        }
+                        positional.add(args[i]);
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+            exitUsage();
+        }
+        if (positional.size() < 2) {
+            exitUsage();
+        }
+
+        Path reference = Path.of(positional.get(0));
+        List<Path> subjects = new ArrayList<>();
+        for (String arg : positional.subList(1, positional.size())) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                subjects.addAll(listSubjects(path, reference));
+            } else {
+                subjects.add(path);
+            }
+        }
+        if (subjects.isEmpty()) {
+            System.err.println("No subjects found");
+            System.exit(66); // EX_NOINPUT
+        }
+        if (converter.getOutputDirectory() != null) {
+            Files.createDirectories(converter.getOutputDirectory());
+        }
+        if (reportPath == null) {
+            Path directory = converter.getOutputDirectory() != null ? converter.getOutputDirectory() : Path.of(".");
+            reportPath = directory.resolve("clap-detect-report.json");
+        }
+
+        System.out.printf("Processing %d subjects against %s\n", subjects.size(), reference);
+        List<BatchResult> results = converter.run(reference, subjects);
+        new BatchReport(reference, results).write(reportPath);
+
+        long failed = results.stream().filter(r -> !r.isSuccessful()).count();
+        System.out.printf("Done: %d succeeded, %d failed. Report written to %s\n", results.size() - failed, failed, reportPath);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static List<Path> listSubjects(Path directory, Path reference) throws IOException {
+        Path absoluteReference = reference.toAbsolutePath().normalize();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith("."))
+                    .filter(p -> !p.getFileName().toString().endsWith("_auto.mp4"))
+                    .filter(p -> !p.toAbsolutePath().normalize().equals(absoluteReference))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int positive(String value) {
+        int n = Integer.parseInt(value);
+        if (n < 1) {
+            throw new IllegalArgumentException(value);
+        }
+        return n;
+    }
+
+    private static void exitUsage() {
+        System.err.println("Usage: java -cp clap-detect.jar bandautocut.clap.detect.BatchMain [options] <reference file> <subject file or directory>...");
+        System.err.println("  --output-dir <dir>         write cut videos here instead of next to each subject");
+        System.err.println("  --report <file>            report path, .json or .csv (default clap-detect-report.json)");
+        System.err.println("  --reference-start <secs>   reference position for subjects aligned by cross-correlation");
+        System.err.println("                             (default: the reference's claps)");
+        System.err.println("  --decode-threads <n>       concurrent audio decodes (default 2)");
+        System.err.println("  --detect-threads <n>       concurrent detections (default: number of CPUs)");
+        System.err.println("  --encode-threads <n>       concurrent video encodes (default 1)");
+        System.err.println("  --no-encode                only detect and write the report");
+        System.err.println("  --analysis-rate <hz>       sample rate to detect claps at (default 8000)");
+        System.err.println("  --all-channels             look for claps on each audio channel instead of a downmix");
+        System.err.println("  --no-refine                keep the 8 kHz clap positions instead of refining them at full rate");
+        System.err.println("  --smart-cut                copy 1080p video after the first keyframe instead of converting it");
+        System.err.println("  --segments <n>             encode each video in n segments at once (default 1)");
+        System.exit(64); // EX_USAGE
+    }
+}
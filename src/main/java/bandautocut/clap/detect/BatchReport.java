@@ -0,0 +1,122 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes batch results as JSON or CSV, chosen by the report file's extension.
+ */
+public class BatchReport {
+
+    private static final String[] COLUMNS = {
+        "subject", "status", "method", "position", "seconds", "onsetSeconds", "onsetFrame", "totalJitter", "averageJitter", "confidence", "output", "error"
+    };
+
+    private final Path reference;
+    private final List<BatchResult> results;
+
+    public BatchReport(Path reference, List<BatchResult> results) {
+        this.reference = reference;
+        this.results = results;
+    }
+
+    public void write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                writeCsv(out);
+            } else {
+                writeJson(out);
+            }
+        }
+    }
+
+    public void writeJson(Writer out) throws IOException {
+        out.write("{\n  \"reference\": " + jsonString(reference.toString()) + ",\n  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            out.write(i == 0 ? "\n    {" : ",\n    {");
+            Object[] values = values(results.get(i));
+            for (int c = 0; c < COLUMNS.length; c++) {
+                out.write(c == 0 ? "" : ", ");
+                out.write("\"" + COLUMNS[c] + "\": " + jsonValue(values[c]));
+            }
+            out.write("}");
+        }
+        out.write("\n  ]\n}\n");
+    }
+
+    public void writeCsv(Writer out) throws IOException {
+        out.write(String.join(",", COLUMNS));
+        out.write("\n");
+        for (BatchResult result : results) {
+            Object[] values = values(result);
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (c > 0) {
+                    out.write(",");
+                }
+                out.write(values[c] == null ? "" : csvValue(values[c].toString()));
+            }
+            out.write("\n");
+        }
+    }
+
+    private static Object[] values(BatchResult result) {
+        boolean found = result.getPosition() >= 0;
+        return new Object[] {
+            result.getSubject().toString(),
+            result.isSuccessful() ? "ok" : "failed",
+            result.getMethod(),
+            found ? result.getPosition() : null,
+            found ? result.getPositionSeconds() : null,
+            Double.isNaN(result.getOnsetSeconds()) ? null : result.getOnsetSeconds(),
+            Double.isNaN(result.getOnsetFrame()) ? null : result.getOnsetFrame(),
+            result.getTotalJitter() >= 0 ? result.getTotalJitter() : null,
+            result.getAverageJitter() >= 0 ? result.getAverageJitter() : null,
+            Double.isNaN(result.getConfidence()) ? null : result.getConfidence(),
+            result.getOutput() != null ? result.getOutput().toString() : null,
+            result.getError()
+        };
+    }
+
+    private static String jsonValue(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof Number) {
+            return value.toString();
+        }
+        return jsonString(value.toString());
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String csvValue(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+}
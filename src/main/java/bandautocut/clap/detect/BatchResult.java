@@ -0,0 +1,138 @@
+package bandautocut.clap.detect;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of aligning and cutting one subject in a batch.
+ */
+public class BatchResult {
+
+    public static final String METHOD_CLAPS = "claps";
+    public static final String METHOD_CORRELATION = "correlation";
+
+    private final Path subject;
+    private Path output;
+    private String method;
+    private int position = -1;
+    private int sampleRate = AnalysisContext.DEFAULT_SAMPLE_RATE;
+    private int totalJitter = -1;
+    private int averageJitter = -1;
+    private double confidence = Double.NaN;
+    private double onsetSeconds = Double.NaN;
+    private double onsetFrame = Double.NaN;
+    private String error;
+
+    public BatchResult(Path subject) {
+        this.subject = subject;
+    }
+
+    public Path getSubject() {
+        return subject;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public void setOutput(Path output) {
+        this.output = output;
+    }
+
+    /**
+     * @return {@link #METHOD_CLAPS} or {@link #METHOD_CORRELATION}, or {@code null} if no position was found
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    /**
+     * @return the cut position in the subject, in samples at {@link #getSampleRate()}
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @param context the rate the position is in
+     */
+    public void setPosition(int position, AnalysisContext context) {
+        this.position = position;
+        this.sampleRate = context.getSampleRate();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the cut position in seconds, or -1 if there is none
+     */
+    public double getPositionSeconds() {
+        return position >= 0 ? position / (double) sampleRate : -1;
+    }
+
+    public int getTotalJitter() {
+        return totalJitter;
+    }
+
+    public void setTotalJitter(int totalJitter) {
+        this.totalJitter = totalJitter;
+    }
+
+    public int getAverageJitter() {
+        return averageJitter;
+    }
+
+    public void setAverageJitter(int averageJitter) {
+        this.averageJitter = averageJitter;
+    }
+
+    /**
+     * @return the cross-correlation confidence, or NaN if the claps were used
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * @return the refined onset of the last clap in seconds, or NaN if it wasn't refined
+     */
+    public double getOnsetSeconds() {
+        return onsetSeconds;
+    }
+
+    public void setOnsetSeconds(double onsetSeconds) {
+        this.onsetSeconds = onsetSeconds;
+    }
+
+    /**
+     * @return the refined onset of the last clap in video frames, or NaN if it wasn't refined or there's no video
+     */
+    public double getOnsetFrame() {
+        return onsetFrame;
+    }
+
+    public void setOnsetFrame(double onsetFrame) {
+        this.onsetFrame = onsetFrame;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
@@ -17,6 +17,12 @@ public class ClapDetectResult {
     /** The most likely sample index of the last clap in the series. */
     private int bestPosition;
 
+    /** Positions of the best sequences found, ranked from the lowest jitter, starting with {@link #bestPosition}. */
+    private int[] candidatePositions = new int[0];
+
+    /** The average jitter of each candidate. */
+    private int[] candidateAverageJitters = new int[0];
+
     public int getTotalJitter() {
         return totalJitter;
     }
@@ -48,4 +54,20 @@ public class ClapDetectResult {
     public void setBestPosition(int bestPosition) {
         this.bestPosition = bestPosition;
     }
+
+    public int[] getCandidatePositions() {
+        return candidatePositions;
+    }
+
+    public void setCandidatePositions(int[] candidatePositions) {
+        this.candidatePositions = candidatePositions;
+    }
+
+    public int[] getCandidateAverageJitters() {
+        return candidateAverageJitters;
+    }
+
+    public void setCandidateAverageJitters(int[] candidateAverageJitters) {
+        this.candidateAverageJitters = candidateAverageJitters;
+    }
 }
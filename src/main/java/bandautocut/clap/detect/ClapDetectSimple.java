@@ -4,21 +4,56 @@ import java.nio.ShortBuffer;
 
 /**
  * Clap detection routines.
+ * <p>
+ * Candidate claps are searched for in a window ending at a threshold, which is moved forward a second at a time to try
+ * to exclude the main recording where possible. The samples are scanned once, with {@link SampleKernels#firstRise}
+ * jumping from one sharp rise to the next: onsets are kept for the current window, and the chain of candidates from the
+ * previous window is reused whenever the new window starts on it, along with the jitter already worked out for each
+ * candidate.
  */
 public class ClapDetectSimple implements ClapDetect {
-    private static final int SAMPLE_RATE = 8000;
     private static final int WINDOW_INITIAL = 5;
     private static final int WINDOW_ADVANCE = 1;
     private static final int WINDOW_LOOKBACK = WINDOW_INITIAL * 2;
     private static final int CLAPS_MAX = 128;
-    private static final int COOLDOWN_THRESHOLD = 300;
+    private static final double COOLDOWN_MILLIS = 37.5;
+    /** The search stops once a window's best sequence has an average jitter below this. */
+    private static final double GOOD_JITTER_MILLIS = 18.75;
     private static final float CLAP_THRESHOLD = 0.2f;
     private static final int LOOKBACK_SAMPLES = 1;
-    
+    /** Rises in magnitude of at most this many steps are below the clap threshold, so the scan can skip them. */
+    private static final int MIN_RISE = (int) (CLAP_THRESHOLD * Short.MAX_VALUE) - 2;
+    private static final int SCAN_CHUNK_SAMPLES = 8192;
+
     private final ShortBuffer samples;
+    private final int sampleRate;
+    private final int cooldown;
+    private final int goodJitter;
+    private final int onsetsMask;
+
+    // Onsets in the current window, as a ring
+    private int[] onsets;
+    private int onsetsHead;
+    private int onsetsCount;
+
+    // Candidates in the current window, and the jitter of the sequence ending at each of them
+    private int[] chain;
+    private int[] chainJitter;
+    private int chainCount;
 
     public ClapDetectSimple(ShortBuffer samples) {
+        this(samples, AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the samples
+     */
+    public ClapDetectSimple(ShortBuffer samples, AnalysisContext context) {
         this.samples = samples;
+        this.sampleRate = context.getSampleRate();
+        this.cooldown = context.samples(COOLDOWN_MILLIS);
+        this.goodJitter = context.samples(GOOD_JITTER_MILLIS);
+        this.onsetsMask = (Integer.highestOneBit(sampleRate * WINDOW_LOOKBACK) << 1) - 1;
     }
 
     @Override
@@ -30,45 +65,133 @@ public class ClapDetectSimple implements ClapDetect {
         result.setAverageJitter(Integer.MAX_VALUE);
         result.setClapIndex(-1);
 
-        // Set a threshold distance for claps and expand it as necessary, to try to exclude out the main recording where possible.
-        for (int thresholdSeconds = WINDOW_INITIAL; thresholdSeconds < samples.remaining() / SAMPLE_RATE; thresholdSeconds += WINDOW_ADVANCE) {
-            int threshold = thresholdSeconds * SAMPLE_RATE;
-            int lookStart = Math.max(LOOKBACK_SAMPLES, threshold + LOOKBACK_SAMPLES - SAMPLE_RATE * WINDOW_LOOKBACK);
-
-            int numberOfFoundClaps = 0;
-            int[] clapIdx = new int[CLAPS_MAX];
-            for (int i = lookStart; i < threshold && numberOfFoundClaps < CLAPS_MAX; i++) {
-                float[] magnitudes = new float[LOOKBACK_SAMPLES + 1];
-                for (int j = 0; j <= LOOKBACK_SAMPLES; j++) {
-                    magnitudes[j] = Math.abs(samples.get(i - LOOKBACK_SAMPLES + j) / (float) Short.MAX_VALUE);
-                }
+        onsets = new int[onsetsMask + 1];
+        onsetsHead = 0;
+        onsetsCount = 0;
+        chain = new int[CLAPS_MAX];
+        chainJitter = new int[CLAPS_MAX];
+        chainCount = 0;
+
+        int scanned = LOOKBACK_SAMPLES;
+        short[] chunk = new short[SCAN_CHUNK_SAMPLES];
 
-                double magnitudeDiff = Math.abs(magnitudes[magnitudes.length - 1]) - Math.abs(magnitudes[0]);
+        for (int thresholdSeconds = WINDOW_INITIAL; thresholdSeconds < samples.remaining() / sampleRate; thresholdSeconds += WINDOW_ADVANCE) {
+            int threshold = thresholdSeconds * sampleRate;
+            int lookStart = Math.max(LOOKBACK_SAMPLES, threshold + LOOKBACK_SAMPLES - sampleRate * WINDOW_LOOKBACK);
 
-                if (magnitudeDiff > CLAP_THRESHOLD) {
-                    clapIdx[numberOfFoundClaps++] = i;
-                    double secondsSinceLastClap = 0;
-                    if (numberOfFoundClaps > 1) {
-                        secondsSinceLastClap = (i - clapIdx[numberOfFoundClaps - 2]) / (double)SAMPLE_RATE;
+            while (onsetsCount > 0 && onsets[onsetsHead] < lookStart) {
+                onsetsHead = (onsetsHead + 1) & onsetsMask;
+                onsetsCount--;
+            }
+            while (scanned < threshold) {
+                // The chunk starts with the sample before the first one scanned, to compare it against
+                int length = Math.min(SCAN_CHUNK_SAMPLES - 1, threshold - scanned);
+                samples.get(scanned - 1, chunk, 0, length + 1);
+                for (int k = SampleKernels.firstRise(chunk, 1, length + 1, MIN_RISE); k >= 0; k = SampleKernels.firstRise(chunk, k + 1, length + 1, MIN_RISE)) {
+                    float magnitude = Math.abs(chunk[k] / (float) Short.MAX_VALUE);
+                    float previousMagnitude = Math.abs(chunk[k - 1] / (float) Short.MAX_VALUE);
+                    if (magnitude - previousMagnitude > CLAP_THRESHOLD) {
+                        onsets[(onsetsHead + onsetsCount++) & onsetsMask] = scanned + k - 1;
                     }
-                    System.out.printf("Detected possible clap at %d (%.2f seconds) Magnitude diff: %.2f Seconds since last clap: %.2f\n", i, i / (float) SAMPLE_RATE, magnitudeDiff, secondsSinceLastClap);
-                    // apply cooldown
-                    i += COOLDOWN_THRESHOLD;
                 }
+                scanned += length;
             }
-            
-            LowestJitterResult jitterResult = new LowestJitter().findLowestJitter(clapIdx, numberOfFoundClaps, numberOfClaps);
-            if (jitterResult.getAverageJitter() < bestJitter) {
-                result.setAverageJitter(jitterResult.getAverageJitter());
-                result.setBestPosition(jitterResult.getBestPosition());
+
+            updateChain(threshold, numberOfClaps);
+
+            int windowJitter = Integer.MAX_VALUE;
+            int windowPosition = -1;
+            for (int i = numberOfClaps - 1; i < chainCount; i++) {
+                if (chainJitter[i] < windowJitter) {
+                    windowJitter = chainJitter[i];
+                    windowPosition = chain[i];
+                }
+            }
+
+            if (windowPosition >= 0 && LowestJitter.averageJitter(windowJitter, numberOfClaps) < bestJitter) {
+                result.setTotalJitter(windowJitter);
+                result.setAverageJitter(LowestJitter.averageJitter(windowJitter, numberOfClaps));
+                result.setBestPosition(windowPosition);
+                result.setClapIndex(windowPosition);
                 bestJitter = result.getAverageJitter();
             }
-            
-            if (bestJitter < 150) {
+
+            if (bestJitter < goodJitter) {
                 return result;
             }
         }
 
         return result;
     }
+
+    /**
+     * Brings the candidate chain up to date for a window ending at {@code threshold}. Each candidate is the first onset
+     * after the previous one's cooldown, so the chain only has to be rebuilt when the window's first onset isn't on it.
+     */
+    private void updateChain(int threshold, int numberOfClaps) {
+        if (onsetsCount == 0) {
+            chainCount = 0;
+            return;
+        }
+
+        int first = onsets[onsetsHead];
+        int index = indexInChain(first);
+        if (index >= 0) {
+            System.arraycopy(chain, index, chain, 0, chainCount - index);
+            System.arraycopy(chainJitter, index, chainJitter, 0, chainCount - index);
+            chainCount -= index;
+        } else {
+            chainCount = 0;
+            appendToChain(first, numberOfClaps);
+        }
+
+        while (chainCount < CLAPS_MAX) {
+            int next = firstOnsetFrom(chain[chainCount - 1] + cooldown + 1);
+            if (next < 0 || next >= threshold) {
+                break;
+            }
+            appendToChain(next, numberOfClaps);
+        }
+    }
+
+    private void appendToChain(int position, int numberOfClaps) {
+        int i = chainCount++;
+        chain[i] = position;
+        if (i >= numberOfClaps - 1) {
+            chainJitter[i] = LowestJitter.totalJitter(chain, i, numberOfClaps);
+        }
+    }
+
+    private int indexInChain(int position) {
+        int low = 0;
+        int high = chainCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chain[mid] < position) {
+                low = mid + 1;
+            } else if (chain[mid] > position) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first onset in the window at or after {@code position}, or -1 if there isn't one
+     */
+    private int firstOnsetFrom(int position) {
+        int low = 0;
+        int high = onsetsCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (onsets[(onsetsHead + mid) & onsetsMask] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < onsetsCount ? onsets[(onsetsHead + low) & onsetsMask] : -1;
+    }
 }
@@ -0,0 +1,145 @@
+package bandautocut.clap.detect;
+
+import java.nio.file.Path;
+
+/**
+ * A conversion waiting in, or run by, a {@link ConversionQueue}.
+ */
+public class ConversionJob {
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final Path input;
+    private final Path output;
+    private final long positionMillis;
+    private final boolean smartCut;
+    private final int segments;
+
+    private volatile State state = State.QUEUED;
+    private volatile long lengthMillis = -1;
+    private volatile long writtenMillis;
+    private volatile String error;
+    private volatile VideoCutter cutter;
+
+    public ConversionJob(Path input, Path output, long positionMillis, boolean smartCut, int segments) {
+        this.input = input;
+        this.output = output;
+        this.positionMillis = positionMillis;
+        this.smartCut = smartCut;
+        this.segments = segments;
+    }
+
+    public Path getInput() {
+        return input;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public long getPositionMillis() {
+        return positionMillis;
+    }
+
+    public boolean isSmartCut() {
+        return smartCut;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return whether the job has stopped running, for any reason
+     */
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * @return the length of the output in milliseconds, or -1 until the job has started
+     */
+    public long getLengthMillis() {
+        return lengthMillis;
+    }
+
+    void setLengthMillis(long lengthMillis) {
+        this.lengthMillis = lengthMillis;
+    }
+
+    public long getWrittenMillis() {
+        return writtenMillis;
+    }
+
+    void setWrittenMillis(long writtenMillis) {
+        this.writtenMillis = writtenMillis;
+    }
+
+    /**
+     * @return the fraction of the output written so far, from 0 to 1
+     */
+    public double getProgress() {
+        if (state == State.DONE) {
+            return 1;
+        }
+        long length = lengthMillis;
+        return length > 0 ? Math.min(1, writtenMillis / (double) length) : 0;
+    }
+
+    /**
+     * @return why the job failed, or {@code null}
+     */
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    VideoCutter getCutter() {
+        return cutter;
+    }
+
+    void setCutter(VideoCutter cutter) {
+        this.cutter = cutter;
+    }
+
+    /**
+     * @return the job as a line that {@link #fromPreference(String)} reads back
+     */
+    String toPreference() {
+        return input + "\t" + output + "\t" + positionMillis + "\t" + smartCut + "\t" + segments;
+    }
+
+    static ConversionJob fromPreference(String value) {
+        String[] fields = value.split("\t");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Not a saved conversion: " + value);
+        }
+        return new ConversionJob(Path.of(fields[0]), Path.of(fields[1]), Long.parseLong(fields[2]),
+                Boolean.parseBoolean(fields[3]), Integer.parseInt(fields[4]));
+    }
+
+    @Override
+    public String toString() {
+        String status = switch (state) {
+            case QUEUED -> "queued";
+            case RUNNING -> String.format("%.0f%%", 100 * getProgress());
+            case DONE -> "done";
+            case FAILED -> "failed: " + error;
+            case CANCELLED -> "cancelled";
+        };
+        return output.getFileName() + " (" + status + ")";
+    }
+}
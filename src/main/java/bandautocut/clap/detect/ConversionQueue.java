@@ -0,0 +1,194 @@
+package bandautocut.clap.detect;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Runs conversions a few at a time, so that queued encodes don't fight each other for the machine. Jobs that haven't
+ * finished are saved in preferences, and {@link #restore()} queues them again after a restart.
+ */
+public class ConversionQueue {
+
+    private final MediaProbe mediaProbe;
+    private final Preferences prefs;
+    private final ExecutorService executor;
+    private final List<ConversionJob> jobs = new CopyOnWriteArrayList<>();
+    private final List<Consumer<ConversionJob>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param prefs the node to save unfinished jobs in; anything else in it is removed
+     * @param maxConcurrent how many jobs may run at once
+     */
+    public ConversionQueue(MediaProbe mediaProbe, Preferences prefs, int maxConcurrent) {
+        this.mediaProbe = mediaProbe;
+        this.prefs = prefs;
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrent), r -> {
+            Thread thread = new Thread(r, "convert-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return how many conversions to run at once; each encode already uses several cores
+     */
+    public static int defaultConcurrency() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    }
+
+    public ConversionJob submit(Path input, Path output, long positionMillis, boolean smartCut, int segments) {
+        return submit(new ConversionJob(input, output, positionMillis, smartCut, segments));
+    }
+
+    private ConversionJob submit(ConversionJob job) {
+        jobs.add(job);
+        save();
+        fireChanged(job);
+        executor.execute(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Queues the jobs that were unfinished when the queue was last saved.
+     */
+    public void restore() {
+        List<ConversionJob> saved = new ArrayList<>();
+        try {
+            for (String key : prefs.keys()) {
+                try {
+                    saved.add(ConversionJob.fromPreference(prefs.get(key, "")));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Skipping saved conversion " + key + ": " + ex.getMessage());
+                }
+            }
+        } catch (BackingStoreException ex) {
+            System.err.println("Unable to read saved conversions: " + ex.getMessage());
+            return;
+        }
+        for (ConversionJob job : saved) {
+            System.out.println("Resuming conversion of " + job.getInput());
+            submit(job);
+        }
+    }
+
+    /**
+     * Cancels a job, killing its ffmpeg processes if it's running.
+     */
+    public void cancel(ConversionJob job) {
+        VideoCutter cutter;
+        synchronized (job) {
+            if (job.isFinished()) {
+                return;
+            }
+            job.setState(ConversionJob.State.CANCELLED);
+            cutter = job.getCutter();
+        }
+        if (cutter != null) {
+            cutter.cancel();
+        }
+        save();
+        fireChanged(job);
+    }
+
+    /**
+     * Forgets the jobs that have finished.
+     */
+    public void clearFinished() {
+        jobs.removeIf(ConversionJob::isFinished);
+    }
+
+    public List<ConversionJob> getJobs() {
+        return List.copyOf(jobs);
+    }
+
+    /**
+     * @param listener called on a conversion thread whenever a job's state or progress changes
+     */
+    public void addListener(Consumer<ConversionJob> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<ConversionJob> listener) {
+        listeners.remove(listener);
+    }
+
+    private void run(ConversionJob job) {
+        VideoCutter cutter = new VideoCutter(mediaProbe);
+        cutter.setSmartCut(job.isSmartCut());
+        cutter.setSegments(job.getSegments());
+        synchronized (job) {
+            if (job.isFinished()) {
+                return;
+            }
+            job.setCutter(cutter);
+            job.setState(ConversionJob.State.RUNNING);
+        }
+        fireChanged(job);
+        ConversionJob.State state = ConversionJob.State.FAILED;
+        String error = null;
+        try {
+            job.setLengthMillis(Math.max(0, cutter.durationMillis(job.getInput()) - job.getPositionMillis()));
+            cutter.cut(job.getInput(), job.getOutput(), job.getPositionMillis(), written -> {
+                job.setWrittenMillis(written);
+                fireChanged(job);
+            });
+            state = ConversionJob.State.DONE;
+        } catch (CancellationException ex) {
+            state = ConversionJob.State.CANCELLED;
+        } catch (RuntimeException ex) {
+            if (cutter.isCancelled()) {
+                state = ConversionJob.State.CANCELLED;
+            } else {
+                ex.printStackTrace();
+                error = ex.getMessage();
+            }
+        } finally {
+            synchronized (job) {
+                // A cancel that raced with the end of the conversion has already set the state
+                if (!job.isFinished()) {
+                    if (error != null) {
+                        job.setError(error);
+                    }
+                    job.setState(state);
+                }
+                job.setCutter(null);
+            }
+        }
+        save();
+        fireChanged(job);
+    }
+
+    private void fireChanged(ConversionJob job) {
+        for (Consumer<ConversionJob> listener : listeners) {
+            listener.accept(job);
+        }
+    }
+
+    /**
+     * Replaces the saved jobs with the ones that haven't finished.
+     */
+    private synchronized void save() {
+        try {
+            prefs.clear();
+            int index = 0;
+            for (ConversionJob job : jobs) {
+                if (!job.isFinished()) {
+                    prefs.put(String.valueOf(index++), job.toPreference());
+                }
+            }
+            prefs.flush();
+        } catch (BackingStoreException ex) {
+            System.err.println("Unable to save conversions: " + ex.getMessage());
+        }
+    }
+}
@@ -1,29 +1,39 @@
 package bandautocut.clap.detect;
 
-import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
-import com.github.kokorin.jaffree.ffmpeg.NullOutput;
-import com.github.kokorin.jaffree.ffmpeg.UrlInput;
-import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
 
 import java.awt.*;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 import java.util.prefs.Preferences;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.LineUnavailableException;
 import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
@@ -42,16 +52,50 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.DragEvent> {
 
     private final Preferences prefs;
+
+    /** How much of the reference before its start, and in total, is decoded by a quick load. */
+    private static final long REFERENCE_WINDOW_LEAD_MILLIS = 60 * 1000;
+    private static final long REFERENCE_WINDOW_MILLIS = 10 * 60 * 1000;
+
+    /** Frame rate the reference offset is counted in when the reference's own can't be probed. */
+    private static final double DEFAULT_FRAME_RATE = 30;
+
+    /** How much is played before and after the cut. */
+    private static final double PLAYBACK_LEAD_MILLIS = 2500;
+    private static final double PLAYBACK_TAIL_MILLIS = 125;
     private final AudioResampler resampler;
     private final LoudnessDetection loudnessDetection;
+    private final ConversionQueue conversionQueue;
+    private final OnsetRefiner onsetRefiner;
+    /** The rate audio is decoded at for display, detection and playback; positions are in its samples. */
+    private final AnalysisContext analysisContext = AnalysisContext.defaultContext();
+    private final PlaybackEngine playbackEngine = new PlaybackEngine(analysisContext);
+    private final ExecutorService decodeExecutor = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "decode");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private boolean dragging = false;
     private int offsetStart;
+    private String loadedSubjectPath;
+    /** Position of the first decoded reference sample, when only a window of the reference was loaded. */
+    private int referenceWindowStart;
+    /** Set by the load thread, read on the event dispatch thread. */
+    private volatile double referenceFrameRate = DEFAULT_FRAME_RATE;
+    private int[] clapCandidates = new int[0];
+    private int[] clapCandidateJitters = new int[0];
+    private int clapCandidateIndex;
 
     private ShortBuffer referenceBuf;
     private ByteBuffer referenceByteBuf;
     private ByteBuffer subjectByteBuf;
     private ShortBuffer subjectBuf;
+    /** Gathered while the subject was decoded, for its gain and the detection thresholds. */
+    private StreamingLoudness subjectLoudness;
+    /** Claps found while the subject was decoded, with the loudness adapted parameters they were found with. */
+    private ClapDetectResult subjectCandidates;
+    private ACDRClapDetect.Parameters subjectCandidateParameters;
     private ShortBufferSampleSource referenceSampleSource;
     private ShortBufferSampleSource subjectSampleSource;
 
@@ -75,11 +119,26 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
     private JTextField longTermDurationField;
     private JTextField maxAllowedClapDurationField;
     private JButton detectClapsButton;
+    private JButton alignButton;
+    private JButton nextCandidateButton;
+    private JButton loadTunedButton;
+    private JCheckBox allChannelsCheckBox;
+    private JCheckBox refineOnsetCheckBox;
+    private JCheckBox quickLoadCheckBox;
+    private JCheckBox smartCutCheckBox;
+    private JCheckBox parallelEncodeCheckBox;
+    private JList<ConversionJob> conversionJobsList;
+    private DefaultListModel<ConversionJob> conversionJobsModel;
+    private JButton cancelConversionButton;
+    private JButton clearConversionsButton;
 
     private JCheckBox referenceEnabledCheckBox;
     private JCheckBox subjectEnabledCheckBox;
     private JButton playButton;
+    private JCheckBox loopCheckBox;
     private JButton scrollButton;
+    private JButton zoomInButton;
+    private JButton zoomOutButton;
 
     private JTextField positionTextField;
 
@@ -96,8 +155,11 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         super("Cut and Convert");
         this.resampler = resampler;
         this.loudnessDetection = loudnessDetection;
+        onsetRefiner = new OnsetRefiner(resampler, analysisContext);
         prefs = Preferences.userNodeForPackage(getClass());
+        conversionQueue = new ConversionQueue(resampler.getMediaProbe(), prefs.node("conversion.queue"), ConversionQueue.defaultConcurrency());
         initComponents();
+        conversionQueue.restore();
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationByPlatform(true);
         pack();
@@ -166,36 +228,13 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         loadButton = new JButton("Load");
         loadButton.addActionListener(l -> {
             loadButton.setEnabled(false);
+            String referencePath = referenceRecordingFileField.getText();
+            String subjectPath = subjectFileField.getText();
             new Thread() {
                 @Override
                 public void run() {
                     try {
-                        ProgressMonitor progressMonitor = new ProgressMonitor(ConvertFrame.this, "Reading audio", "", 0, 2);
-                        progressMonitor.setMillisToDecideToPopup(0);
-                        progressMonitor.setMillisToPopup(1);
-                        referenceByteBuf = resampler.resampleAudio(referenceRecordingFileField.getText(), 1, 8000)
-                                .order(ByteOrder.nativeOrder());
-                        referenceBuf = referenceByteBuf
-                                .asShortBuffer();
-                        progressMonitor.setProgress(1);
-                        subjectByteBuf = resampler.resampleAudio(subjectFileField.getText(), 1, 8000)
-                                .order(ByteOrder.nativeOrder());
-                        subjectBuf = subjectByteBuf
-                                .asShortBuffer();
-                        progressMonitor.setProgress(2);
-
-                        float subjectLoudnessMultiplier = loudnessDetection.suggestMultiplier(subjectBuf);
-
-                        SwingUtilities.invokeLater(() -> {
-                            sampleViewer.removeAllSources();
-                            referenceSampleSource = new ShortBufferSampleSource("Reference", referenceBuf, 1);
-                            subjectSampleSource = new ShortBufferSampleSource("Subject", subjectBuf, subjectLoudnessMultiplier);
-                            sampleViewer.addSampleSource(referenceSampleSource);
-                            sampleViewer.addSampleSource(subjectSampleSource);
-                            sampleViewerPane.revalidate();
-                            sampleViewerPane.repaint();
-                            clapPositionLabel.setText("Subject loudness multiplier: " + String.format("%.2f", subjectLoudnessMultiplier));
-                        });
+                        loadRecordings(referencePath, subjectPath);
                     } finally {
                         SwingUtilities.invokeLater(() -> {
                             loadButton.setEnabled(true);
@@ -266,6 +305,15 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         gblp.setConstraints(selectSubjectRecordingButton, gbcp);
         recordingsPanel.add(selectSubjectRecordingButton);
 
+        quickLoadCheckBox = new JCheckBox("Quick load", prefs.getBoolean("recordings.quick.load", false));
+        quickLoadCheckBox.setToolTipText("Only decode the reference around its start and the subject until its claps are found");
+        quickLoadCheckBox.addActionListener(e -> prefs.putBoolean("recordings.quick.load", quickLoadCheckBox.isSelected()));
+        gbcp.gridx = 1;
+        gbcp.gridy++;
+        gbcp.anchor = GridBagConstraints.BASELINE_LEADING;
+        gblp.setConstraints(quickLoadCheckBox, gbcp);
+        recordingsPanel.add(quickLoadCheckBox);
+
         recordingsPanel.setBorder(BorderFactory.createTitledBorder(null, "Recordings"));
         gbc.gridx = gbc.gridy = 0;
         gbc.anchor = GridBagConstraints.CENTER;
@@ -305,17 +353,17 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         clapDetectionPanel.add(decisionThresholdLabel);
 
         gbcp.gridy++;
-        JLabel shortTermDurationLabel = new JLabel("Short term duration");
+        JLabel shortTermDurationLabel = new JLabel("Short term duration (ms)");
         gblp.setConstraints(shortTermDurationLabel, gbcp);
         clapDetectionPanel.add(shortTermDurationLabel);
 
         gbcp.gridy++;
-        JLabel longTermDurationLabel = new JLabel("Long term duration");
+        JLabel longTermDurationLabel = new JLabel("Long term duration (ms)");
         gblp.setConstraints(longTermDurationLabel, gbcp);
         clapDetectionPanel.add(longTermDurationLabel);
 
         gbcp.gridy++;
-        JLabel maxAllowedClapDurationLabel = new JLabel("Max allowed clap duration");
+        JLabel maxAllowedClapDurationLabel = new JLabel("Max allowed clap duration (ms)");
         gblp.setConstraints(maxAllowedClapDurationLabel, gbcp);
         clapDetectionPanel.add(maxAllowedClapDurationLabel);
 
@@ -385,21 +433,21 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
             @Override
             public void insertUpdate(DocumentEvent e) {
                 try {
-                    shortTermDurationChanged(Integer.parseInt(shortTermDurationField.getText()));
+                    shortTermDurationChanged(Double.parseDouble(shortTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
                 try {
-                    shortTermDurationChanged(Integer.parseInt(shortTermDurationField.getText()));
+                    shortTermDurationChanged(Double.parseDouble(shortTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
                 try {
-                    shortTermDurationChanged(Integer.parseInt(shortTermDurationField.getText()));
+                    shortTermDurationChanged(Double.parseDouble(shortTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
         });
@@ -412,21 +460,21 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
             @Override
             public void insertUpdate(DocumentEvent e) {
                 try {
-                    longTermDurationChanged(Integer.parseInt(longTermDurationField.getText()));
+                    longTermDurationChanged(Double.parseDouble(longTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
                 try {
-                    longTermDurationChanged(Integer.parseInt(longTermDurationField.getText()));
+                    longTermDurationChanged(Double.parseDouble(longTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
                 try {
-                    longTermDurationChanged(Integer.parseInt(longTermDurationField.getText()));
+                    longTermDurationChanged(Double.parseDouble(longTermDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
         });
@@ -440,21 +488,21 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
             @Override
             public void insertUpdate(DocumentEvent e) {
                 try {
-                    maxAllowedClapLengthChanged(Integer.parseInt(maxAllowedClapDurationField.getText()));
+                    maxAllowedClapLengthChanged(Double.parseDouble(maxAllowedClapDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
                 try {
-                    maxAllowedClapLengthChanged(Integer.parseInt(maxAllowedClapDurationField.getText()));
+                    maxAllowedClapLengthChanged(Double.parseDouble(maxAllowedClapDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
                 try {
-                    maxAllowedClapLengthChanged(Integer.parseInt(maxAllowedClapDurationField.getText()));
+                    maxAllowedClapLengthChanged(Double.parseDouble(maxAllowedClapDurationField.getText()));
                 } catch (NumberFormatException ex) {}
             }
         });
@@ -467,30 +515,33 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
                 clapPositionLabel.setText("No recordings loaded");
                 return;
             }
-            ACDRClapDetect.Parameters params = new ACDRClapDetect.Parameters();
-            try {
-                params.setThresholdConstant(Integer.parseInt(thresholdConstantField.getText()));
-            } catch (NumberFormatException ex) {}
-            try {
-                params.setDecisionThreshold(Integer.parseInt(decisionThresholdField.getText()));
-            } catch (NumberFormatException ex) {}
-            try {
-                params.setShortTermDuration(Integer.parseInt(shortTermDurationField.getText()));
-            } catch (NumberFormatException ex) {}
-            try {
-                params.setLongTermDuration(Integer.parseInt(longTermDurationField.getText()));
-            } catch (NumberFormatException ex) {}
-            try {
-                params.setMaxAllowedClapDuraton(Integer.parseInt(maxAllowedClapDurationField.getText()));
-            } catch (NumberFormatException ex) {}
+            ACDRClapDetect.Parameters params = loudnessDetection.adaptParameters(clapDetectParameters(), subjectLoudness);
 
-            ClapDetectResult result = new ACDRClapDetect(subjectBuf, params).clapDetect(4);
-            if (result.getBestPosition() == 0) {
-                clapPositionLabel.setText("Unable to detect claps");
-            } else {
-                clapPositionLabel.setText("Clap position: " + String.format("%.2fs", result.getBestPosition() / 8000f));
-                positionTextField.setText(String.valueOf(result.getBestPosition()));
+            if (!allChannelsCheckBox.isSelected()) {
+                if (params.equals(subjectCandidateParameters)) {
+                    showClapDetectResult(subjectCandidates);
+                } else {
+                    showClapDetectResult(new ACDRClapDetect(subjectBuf, params, analysisContext).clapDetect(4));
+                }
+                return;
             }
+
+            // The loaded audio is a downmix, so decode every channel again, in one pass
+            String subjectPath = loadedSubjectPath;
+            detectClapsButton.setEnabled(false);
+            clapPositionLabel.setText("Decoding all channels...");
+            new Thread(() -> {
+                try {
+                    int channels = Math.max(1, resampler.getMediaProbe().probeAudioChannels(subjectPath));
+                    ShortBuffer interleaved = resampler.resampleAudio(subjectPath, channels, analysisContext.getSampleRate()).asShortBuffer();
+                    ClapDetectResult result = new MultiChannelClapDetect(interleaved, channels, params, analysisContext).clapDetect(4);
+                    SwingUtilities.invokeLater(() -> showClapDetectResult(result));
+                } catch (RuntimeException ex) {
+                    SwingUtilities.invokeLater(() -> clapPositionLabel.setText("Detection failed: " + ex.getMessage()));
+                } finally {
+                    SwingUtilities.invokeLater(() -> detectClapsButton.setEnabled(true));
+                }
+            }).start();
         });
         gbcp.gridx = 0;
         gbcp.gridy++;
@@ -506,6 +557,82 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         gblp.setConstraints(clapPositionLabel, gbcp);
         clapDetectionPanel.add(clapPositionLabel);
 
+        alignButton = new JButton("Cross-correlate");
+        alignButton.setToolTipText("Align the subject to the reference by its waveform, without claps");
+        alignButton.addActionListener(e -> {
+            if (referenceBuf == null || subjectBuf == null) {
+                clapPositionLabel.setText("No recordings loaded");
+                return;
+            }
+            alignButton.setEnabled(false);
+            clapPositionLabel.setText("Aligning...");
+            int referenceStart = referenceRecordingStartSample() - referenceWindowStart;
+            ShortBuffer reference = referenceBuf;
+            ShortBuffer subject = subjectBuf;
+            new Thread(() -> {
+                try {
+                    AlignmentResult result = new CrossCorrelationAligner(analysisContext).align(reference, subject);
+                    int position = result.subjectPositionFor(referenceStart);
+                    SwingUtilities.invokeLater(() -> {
+                        positionTextField.setText(String.valueOf(position));
+                        clapPositionLabel.setText(String.format("Aligned at %.2fs, confidence %.2f", analysisContext.seconds(position), result.getConfidence()));
+                    });
+                } catch (IllegalArgumentException ex) {
+                    SwingUtilities.invokeLater(() -> clapPositionLabel.setText(ex.getMessage()));
+                } catch (RuntimeException | OutOfMemoryError ex) {
+                    // Long recordings need large correlation buffers
+                    SwingUtilities.invokeLater(() -> clapPositionLabel.setText("Alignment failed: " + ex.getMessage()));
+                } finally {
+                    SwingUtilities.invokeLater(() -> alignButton.setEnabled(true));
+                }
+            }).start();
+        });
+        gbcp.gridx = 0;
+        gbcp.gridy++;
+        gbcp.anchor = GridBagConstraints.BASELINE;
+        gblp.setConstraints(alignButton, gbcp);
+        clapDetectionPanel.add(alignButton);
+
+        nextCandidateButton = new JButton("Next candidate");
+        nextCandidateButton.setToolTipText("Use the next best clap sequence from the last detection");
+        nextCandidateButton.setEnabled(false);
+        nextCandidateButton.addActionListener(e -> {
+            if (clapCandidates.length == 0) {
+                return;
+            }
+            clapCandidateIndex = (clapCandidateIndex + 1) % clapCandidates.length;
+            int position = clapCandidates[clapCandidateIndex];
+            positionTextField.setText(String.valueOf(position));
+            clapPositionLabel.setText(String.format("Candidate %d of %d: %.2fs, jitter %d",
+                    clapCandidateIndex + 1, clapCandidates.length, analysisContext.seconds(position), clapCandidateJitters[clapCandidateIndex]));
+            refineClapPosition(position, String.format("Candidate %d of %d", clapCandidateIndex + 1, clapCandidates.length));
+        });
+        gbcp.gridx++;
+        gbcp.anchor = GridBagConstraints.BASELINE_LEADING;
+        gblp.setConstraints(nextCandidateButton, gbcp);
+        clapDetectionPanel.add(nextCandidateButton);
+
+        loadTunedButton = new JButton("Load tuned...");
+        loadTunedButton.setToolTipText("Use the parameters found by TuneMain as the defaults");
+        loadTunedButton.addActionListener(e -> loadTunedParameters());
+        gbcp.gridx++;
+        gblp.setConstraints(loadTunedButton, gbcp);
+        clapDetectionPanel.add(loadTunedButton);
+
+        allChannelsCheckBox = new JCheckBox("All channels", prefs.getBoolean("clapdetect.all.channels", false));
+        allChannelsCheckBox.setToolTipText("Look for claps on each channel separately instead of in a downmix");
+        allChannelsCheckBox.addActionListener(e -> prefs.putBoolean("clapdetect.all.channels", allChannelsCheckBox.isSelected()));
+        gbcp.gridx++;
+        gblp.setConstraints(allChannelsCheckBox, gbcp);
+        clapDetectionPanel.add(allChannelsCheckBox);
+
+        refineOnsetCheckBox = new JCheckBox("Refine onset", prefs.getBoolean("clapdetect.refine.onset", true));
+        refineOnsetCheckBox.setToolTipText("Find the exact start of the detected clap at the subject's own sample rate");
+        refineOnsetCheckBox.addActionListener(e -> prefs.putBoolean("clapdetect.refine.onset", refineOnsetCheckBox.isSelected()));
+        gbcp.gridx++;
+        gblp.setConstraints(refineOnsetCheckBox, gbcp);
+        clapDetectionPanel.add(refineOnsetCheckBox);
+
         gbc.gridx = 0;
         gbc.gridy++;
         gbc.weighty = 0;
@@ -651,71 +778,38 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         gblp.setConstraints(subjectEnabledCheckBox, gbcp);
         previewPanel.add(subjectEnabledCheckBox);
 
+        loopCheckBox = new JCheckBox("Loop", false);
+        loopCheckBox.setToolTipText("Keep playing around the cut, so the alignment can be dragged while listening");
+        loopCheckBox.addActionListener(e -> playbackEngine.setLoop(loopCheckBox.isSelected()));
+        gbcp.gridy++;
+        gblp.setConstraints(loopCheckBox, gbcp);
+        previewPanel.add(loopCheckBox);
+
         gbcp.gridx++;
         gbcp.gridy = 0;
         playButton = new JButton("Play");
         playButton.addActionListener(e -> {
-            if (subjectByteBuf == null) {
+            if (subjectSampleSource == null) {
+                return;
+            }
+            if (playbackEngine.isPlaying()) {
+                playbackEngine.stop();
                 return;
             }
-            playButton.setEnabled(false);
-            int position = 0;
+            updatePlaybackSources();
+            playbackEngine.setAnchor(referenceRecordingStartSample());
+            playbackEngine.setLoop(loopCheckBox.isSelected());
             try {
-                position = Integer.parseInt(positionTextField.getText());
-            } catch (NumberFormatException ex) {
+                playbackEngine.play(analysisContext.samples(PLAYBACK_LEAD_MILLIS), analysisContext.samples(PLAYBACK_TAIL_MILLIS));
+                playButton.setText("Stop");
+            } catch (LineUnavailableException ex) {
+                ex.printStackTrace();
+                clapPositionLabel.setText("No audio output available");
             }
-            boolean referenceEnabled = referenceEnabledCheckBox.isSelected();
-            boolean subjectEnabled = subjectEnabledCheckBox.isSelected();
-            int pos = position;
-            new Thread() {
-                @Override
-                public void run() {
-                    AudioFormat audioFormat = new AudioFormat(8000, 16, 1, true, referenceBuf.order() == ByteOrder.BIG_ENDIAN);
-                    DataLine.Info info = new DataLine.Info(SourceDataLine.class, audioFormat);
-                    try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info)) {
-                        line.open(audioFormat, 4096);
-                        line.start();
-                        byte[] referenceBytes = referenceByteBuf.array();
-                        int referenceOffset = referenceByteBuf.arrayOffset();
-                        byte[] subjectBytes = subjectByteBuf.array();
-                        int subjectOffset = subjectByteBuf.arrayOffset();
-                        byte[] tempBytes = null;
-                        ByteBuffer tempByteBuf = null;
-                        ShortBuffer tempBuf = null;
-                        int refStart = referenceRecordingStartSample();
-                        for (int i = Math.max(0, pos - 20000); i < pos + 1000; i += 2048) {
-                            if (referenceEnabled && !subjectEnabled) {
-                                line.write(referenceBytes, referenceOffset + (i - pos + refStart) * 2, 4096);
-                            } else if (subjectEnabled && !referenceEnabled) {
-                                line.write(subjectBytes, subjectOffset + i * 2, 4096);
-                            } else if (subjectEnabled && referenceEnabled) {
-                                // Both enabled; mix the two audio sources together
-                                if (tempBytes == null) {
-                                    tempBytes = new byte[4096];
-                                    tempByteBuf = ByteBuffer.wrap(tempBytes).order(subjectByteBuf.order());
-                                    tempBuf = tempByteBuf.asShortBuffer();
-                                }
-                                assert tempBuf != null;
-                                tempBuf.clear();
-                                for (int j = 0; j < 2048; j++) {
-                                    short referenceSample = referenceBuf.get(i - pos + refStart + j);
-                                    short subjectSample = subjectBuf.get(i + j);
-                                    short sample = (short) (((int) referenceSample + subjectSample) / 2);
-                                    tempBuf.put(sample);
-                                }
-                                tempBuf.flip();
-                                line.write(tempBytes, 0, 4096);
-                            }
-                        }
-                        line.drain();
-                        line.stop();
-                        SwingUtilities.invokeLater(() -> playButton.setEnabled(true));
-                    } catch (Exception ex) {
-                        ex.printStackTrace();
-                    }
-                }
-            }.start();
         });
+        playbackEngine.setStoppedListener(() -> SwingUtilities.invokeLater(() -> playButton.setText("Play")));
+        referenceEnabledCheckBox.addActionListener(e -> updatePlaybackSources());
+        subjectEnabledCheckBox.addActionListener(e -> updatePlaybackSources());
         gblp.setConstraints(playButton, gbcp);
         previewPanel.add(playButton);
 
@@ -724,13 +818,27 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         scrollButton.addActionListener(e -> {
             try {
                 int position = Integer.parseInt(positionTextField.getText());
-                Rectangle rect = new Rectangle(position, 0, 1, 1);
-                sampleViewer.scrollRectToVisible(rect);
+                sampleViewer.scrollToSample(position);
             } catch (NumberFormatException ex) {}
         });
         gblp.setConstraints(scrollButton, gbcp);
         previewPanel.add(scrollButton);
 
+        gbcp.gridx++;
+        gbcp.gridy = 0;
+        zoomInButton = new JButton("+");
+        zoomInButton.setToolTipText("Zoom in (Ctrl + mouse wheel)");
+        zoomInButton.addActionListener(e -> sampleViewer.zoom(2));
+        gblp.setConstraints(zoomInButton, gbcp);
+        previewPanel.add(zoomInButton);
+
+        gbcp.gridy++;
+        zoomOutButton = new JButton("-");
+        zoomOutButton.setToolTipText("Zoom out (Ctrl + mouse wheel)");
+        zoomOutButton.addActionListener(e -> sampleViewer.zoom(0.5f));
+        gblp.setConstraints(zoomOutButton, gbcp);
+        previewPanel.add(zoomOutButton);
+
         gbc.gridy++;
         gbc.weightx = 0;
         gbc.fill = GridBagConstraints.BOTH;
@@ -747,67 +855,13 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
 
         convertButton = new JButton("Convert");
         convertButton.addActionListener(e -> {
-            convertButton.setText("Stop");
-            conversionProgressBar.setIndeterminate(true);
-
             File inputFile = new File(subjectFileField.getText());
             File outputFile = new File(inputFile.getParentFile(), inputFile.getName().replaceAll("\\..+$", "") + "_auto.mp4");
 
             int position = Integer.parseInt(positionTextField.getText());
-            new Thread(() -> {
-                final AtomicLong atomicDuration = new AtomicLong();
-                FFmpeg.atPath()
-                        .addInput(UrlInput.fromPath(Path.of(inputFile.getAbsolutePath())))
-                        .setOverwriteOutput(true)
-                        .addOutput(new NullOutput())
-                        .setProgressListener(progress -> {
-                            atomicDuration.set(progress.getTimeMillis());
-                        })
-                        .execute();
-
-                int duration = atomicDuration.intValue();
-
-                Taskbar taskbar;
-                if (Taskbar.isTaskbarSupported()) {
-                    taskbar = Taskbar.getTaskbar();
-                    taskbar.setWindowProgressState(ConvertFrame.this, Taskbar.State.NORMAL);
-                } else {
-                    taskbar = null;
-                }
-
-                SwingUtilities.invokeLater(() -> {
-                    conversionProgressBar.setIndeterminate(false);
-                    conversionProgressBar.setMinimum(position / 8);
-                    conversionProgressBar.setMaximum(duration);
-                });
-                FFmpeg.atPath()
-                        .addInput(
-                                UrlInput.fromPath(Path.of(inputFile.getAbsolutePath()))
-                                        .setPosition(position / 8)
-                        )
-                        .setOverwriteOutput(true)
-                        .addArguments("-movflags", "faststart")
-                        .setFilter("v", "scale='min(1920,iw)':min'(1080,ih)':force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2")
-                        .addOutput(UrlOutput.toUrl(outputFile.getAbsolutePath()))
-                        .setProgressListener(progress -> {
-                            SwingUtilities.invokeLater(() -> {
-                                int timeValue = progress.getTimeMillis().intValue();
-                                conversionProgressBar.setValue(timeValue);
-                                if (taskbar != null) {
-                                    int percentage = (100 * (timeValue - (position / 8))) / (duration - (position / 8));
-                                    taskbar.setWindowProgressValue(ConvertFrame.this, percentage);
-                                }
-                            });
-                        })
-                        .execute();
-                SwingUtilities.invokeLater(() -> {
-                    convertButton.setText("Convert");
-                    conversionProgressBar.setValue(0);
-                    if (taskbar != null) {
-                        taskbar.setWindowProgressState(ConvertFrame.this, Taskbar.State.OFF);
-                    }
-                });
-            }).start();
+            int segments = parallelEncodeCheckBox.isSelected() ? VideoCutter.defaultSegments() : 1;
+            conversionQueue.submit(inputFile.toPath().toAbsolutePath(), outputFile.toPath().toAbsolutePath(), analysisContext.millis(position),
+                    smartCutCheckBox.isSelected(), segments);
         });
 
         gbc.gridx++;
@@ -820,6 +874,279 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
 
         getContentPane().setLayout(gbl);
         getContentPane().add(convertButton);
+
+        conversionJobsModel = new DefaultListModel<>();
+        conversionJobsList = new JList<>(conversionJobsModel);
+        conversionJobsList.setVisibleRowCount(4);
+        JScrollPane conversionJobsPane = new JScrollPane(conversionJobsList);
+        gbc.gridx = 0;
+        gbc.gridy++;
+        gbc.gridheight = 4;
+        gbc.weightx = 1;
+        gbc.fill = GridBagConstraints.BOTH;
+        gbl.setConstraints(conversionJobsPane, gbc);
+        getContentPane().add(conversionJobsPane);
+        conversionQueue.addListener(job -> SwingUtilities.invokeLater(() -> conversionChanged(job)));
+
+        smartCutCheckBox = new JCheckBox("Smart cut", prefs.getBoolean("conversion.smart.cut", false));
+        smartCutCheckBox.setToolTipText("Copy 1080p video after the first keyframe instead of converting all of it");
+        smartCutCheckBox.addActionListener(e -> prefs.putBoolean("conversion.smart.cut", smartCutCheckBox.isSelected()));
+        gbc.gridx = 1;
+        gbc.gridheight = 1;
+        gbc.weightx = 0;
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.anchor = GridBagConstraints.BASELINE_LEADING;
+        gbl.setConstraints(smartCutCheckBox, gbc);
+        getContentPane().add(smartCutCheckBox);
+
+        parallelEncodeCheckBox = new JCheckBox("Parallel encode", prefs.getBoolean("conversion.parallel.encode", false));
+        parallelEncodeCheckBox.setToolTipText("Encode segments of the video at the same time on all cores, then join them");
+        parallelEncodeCheckBox.addActionListener(e -> prefs.putBoolean("conversion.parallel.encode", parallelEncodeCheckBox.isSelected()));
+        gbc.gridy++;
+        gbl.setConstraints(parallelEncodeCheckBox, gbc);
+        getContentPane().add(parallelEncodeCheckBox);
+
+        cancelConversionButton = new JButton("Cancel");
+        cancelConversionButton.setToolTipText("Cancel the selected conversions, stopping ffmpeg if they're running");
+        cancelConversionButton.addActionListener(e -> {
+            for (ConversionJob job : conversionJobsList.getSelectedValuesList()) {
+                conversionQueue.cancel(job);
+            }
+        });
+        gbc.gridy++;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbl.setConstraints(cancelConversionButton, gbc);
+        getContentPane().add(cancelConversionButton);
+
+        clearConversionsButton = new JButton("Clear finished");
+        clearConversionsButton.addActionListener(e -> {
+            conversionQueue.clearFinished();
+            for (int i = conversionJobsModel.size() - 1; i >= 0; i--) {
+                if (conversionJobsModel.get(i).isFinished()) {
+                    conversionJobsModel.remove(i);
+                }
+            }
+        });
+        gbc.gridy++;
+        gbl.setConstraints(clearConversionsButton, gbc);
+        getContentPane().add(clearConversionsButton);
+    }
+
+    /**
+     * Shows a conversion's new state in the job list, and the progress of every unfinished conversion in the progress
+     * bar and taskbar.
+     */
+    private void conversionChanged(ConversionJob job) {
+        int index = conversionJobsModel.indexOf(job);
+        if (index < 0) {
+            conversionJobsModel.addElement(job);
+        } else {
+            conversionJobsModel.set(index, job);
+        }
+
+        long length = 0;
+        long written = 0;
+        boolean active = false;
+        for (ConversionJob queued : conversionQueue.getJobs()) {
+            if (!queued.isFinished()) {
+                active = true;
+                length += Math.max(0, queued.getLengthMillis());
+                written += Math.min(queued.getWrittenMillis(), Math.max(0, queued.getLengthMillis()));
+            }
+        }
+        int permille = length > 0 ? (int) (1000 * written / length) : 0;
+        conversionProgressBar.setMaximum(1000);
+        conversionProgressBar.setValue(active ? permille : 0);
+
+        if (Taskbar.isTaskbarSupported()) {
+            Taskbar taskbar = Taskbar.getTaskbar();
+            if (active) {
+                taskbar.setWindowProgressState(this, Taskbar.State.NORMAL);
+                taskbar.setWindowProgressValue(this, permille / 10);
+            } else {
+                taskbar.setWindowProgressState(this, Taskbar.State.OFF);
+            }
+        }
+    }
+
+    /**
+     * Decodes both recordings in parallel and shows them in the sample viewer.
+     * If either decode fails or the operator cancels, the other one is cancelled as well.
+     */
+    private void loadRecordings(String referencePath, String subjectPath) {
+        ProgressMonitor progressMonitor = new ProgressMonitor(ConvertFrame.this, "Reading audio", "", 0, 200);
+        progressMonitor.setMillisToDecideToPopup(0);
+        progressMonitor.setMillisToPopup(1);
+
+        double[] progress = new double[2];
+        double frameRate = resampler.getMediaProbe().probe(referencePath).getFrameRate();
+        referenceFrameRate = frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE;
+        boolean quickLoad = quickLoadCheckBox.isSelected();
+        DecodeJob referenceJob = resampler.createJob(referencePath, 1, analysisContext.getSampleRate());
+        referenceJob.setProgressListener(p -> updateLoadProgress(progressMonitor, progress, 0, p));
+        CompletableFuture<ByteBuffer> referenceFuture;
+        CompletableFuture<ByteBuffer> subjectFuture;
+        Runnable cancelSubject;
+        int windowStart = 0;
+
+        // The viewer's waveforms, the subject's loudness and its claps are all worked out while the recordings decode
+        AnalysisPipeline referencePipeline = new AnalysisPipeline("reference-analysis");
+        WaveformPyramid.Builder referenceWaveform = referencePipeline.addStage("waveform", new WaveformPyramid.Builder(
+                quickLoad ? (int) analysisContext.samplesForMillis(REFERENCE_WINDOW_MILLIS) : expectedSamples(referencePath)));
+        referenceJob.setListener(referencePipeline);
+        AnalysisPipeline subjectPipeline = new AnalysisPipeline("subject-analysis");
+        WaveformPyramid.Builder subjectWaveform = subjectPipeline.addStage("waveform", new WaveformPyramid.Builder(expectedSamples(subjectPath)));
+        StreamingLoudness loudness = subjectPipeline.addStage("loudness", new StreamingLoudness(analysisContext));
+        ACDRClapDetect.Parameters candidateParameters = clapDetectParameters();
+        CandidateScan candidates = new CandidateScan(candidateParameters, analysisContext);
+
+        if (quickLoad) {
+            // Playback and alignment only need the reference around its start
+            long windowStartMillis = Math.max(0, analysisContext.millis(referenceRecordingStartSample()) - REFERENCE_WINDOW_LEAD_MILLIS);
+            windowStart = (int) analysisContext.samplesForMillis(windowStartMillis);
+            referenceJob.setRange(windowStartMillis, REFERENCE_WINDOW_MILLIS);
+
+            ProgressiveDecode subjectDecode = resampler.createProgressiveDecode(subjectPath, 1, analysisContext.getSampleRate());
+            subjectDecode.setProgressListener(p -> updateLoadProgress(progressMonitor, progress, 1, p));
+            subjectDecode.setListener(subjectPipeline);
+            subjectFuture = CompletableFuture.supplyAsync(() -> subjectPipeline.process(() -> subjectDecode.execute(samples -> {
+                // Once drained, the loudness covers the same samples, since both are fed by the windows decoded so far
+                subjectPipeline.drain();
+                ClapDetectResult result = candidates.update(samples, loudnessDetection.adaptParameters(candidateParameters, loudness));
+                return result.getBestPosition() > 0 && result.getBestPosition() < samples.limit()
+                        && result.getAverageJitter() <= analysisContext.samples(candidateParameters.getMaxAverageJitterMillis());
+            })), decodeExecutor);
+            cancelSubject = subjectDecode::cancel;
+        } else {
+            // The gain isn't known until the end, so the claps are looked for with the parameters as they are, which
+            // is all that's needed unless the recording turns out to be quiet
+            subjectPipeline.addStage("claps", candidates);
+            DecodeJob subjectJob = resampler.createJob(subjectPath, 1, analysisContext.getSampleRate());
+            subjectJob.setProgressListener(p -> updateLoadProgress(progressMonitor, progress, 1, p));
+            subjectJob.setListener(subjectPipeline);
+            subjectFuture = CompletableFuture.supplyAsync(() -> subjectPipeline.process(subjectJob::execute), decodeExecutor);
+            cancelSubject = subjectJob::cancel;
+        }
+        referenceFuture = CompletableFuture.supplyAsync(() -> referencePipeline.process(referenceJob::execute), decodeExecutor);
+        referenceFuture.whenComplete((buf, ex) -> {
+            if (ex != null) {
+                cancelSubject.run();
+            }
+        });
+        subjectFuture.whenComplete((buf, ex) -> {
+            if (ex != null) {
+                referenceJob.cancel();
+            }
+        });
+
+        CompletableFuture<Void> both = CompletableFuture.allOf(referenceFuture, subjectFuture);
+        boolean cancelledByUser = false;
+        try {
+            while (!both.isDone()) {
+                if (progressMonitor.isCanceled()) {
+                    cancelledByUser = true;
+                    referenceJob.cancel();
+                    cancelSubject.run();
+                }
+                try {
+                    both.get(100, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                }
+            }
+
+            referenceByteBuf = referenceFuture.join().order(ByteOrder.nativeOrder());
+            referenceBuf = referenceByteBuf.asShortBuffer();
+            subjectByteBuf = subjectFuture.join().order(ByteOrder.nativeOrder());
+            subjectBuf = subjectByteBuf.asShortBuffer();
+            subjectLoudness = loudness;
+            ACDRClapDetect.Parameters adapted = loudnessDetection.adaptParameters(candidateParameters, loudness);
+            subjectCandidates = candidates.update(subjectBuf, adapted);
+            subjectCandidateParameters = adapted;
+            loadedSubjectPath = subjectPath;
+            referenceWindowStart = windowStart;
+        } catch (InterruptedException ex) {
+            referenceJob.cancel();
+            cancelSubject.run();
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException | CompletionException | CancellationException ex) {
+            // A failed decode cancels the other one, so look past the cancellation for the error that started it
+            Throwable failure = firstFailure(referenceFuture, subjectFuture);
+            Throwable cause = failure != null ? failure : rootCause(ex);
+            boolean cancelled = failure == null && cancelledByUser;
+            SwingUtilities.invokeLater(() -> {
+                progressMonitor.close();
+                if (cancelled) {
+                    clapPositionLabel.setText("Loading cancelled");
+                } else {
+                    clapPositionLabel.setText("Loading failed");
+                    JOptionPane.showMessageDialog(this, cause.getMessage(), "Unable to load recordings", JOptionPane.ERROR_MESSAGE);
+                }
+            });
+            return;
+        }
+
+        float subjectLoudnessMultiplier = loudnessDetection.suggestMultiplier(loudness);
+        System.out.println("Subject loudness: " + loudness);
+        ShortBufferSampleSource newReferenceSampleSource = new ShortBufferSampleSource("Reference", referenceBuf, 1, referenceWaveform.build());
+        newReferenceSampleSource.setStart(windowStart);
+        ShortBufferSampleSource newSubjectSampleSource = new ShortBufferSampleSource("Subject", subjectBuf, subjectLoudnessMultiplier, subjectWaveform.build());
+
+        SwingUtilities.invokeLater(() -> {
+            progressMonitor.close();
+            sampleViewer.removeAllSources();
+            referenceSampleSource = newReferenceSampleSource;
+            subjectSampleSource = newSubjectSampleSource;
+            sampleViewer.addSampleSource(referenceSampleSource);
+            sampleViewer.addSampleSource(subjectSampleSource);
+            updatePlaybackSources();
+            sampleViewerPane.revalidate();
+            sampleViewerPane.repaint();
+            clapPositionLabel.setText("Subject loudness multiplier: " + String.format("%.2f", subjectLoudnessMultiplier));
+        });
+    }
+
+    /**
+     * @return the number of samples a whole recording decodes to, or 0 if its duration is unknown
+     */
+    private int expectedSamples(String path) {
+        return analysisContext.samplesForSeconds(Math.max(0, resampler.getMediaProbe().probeDurationSeconds(path)));
+    }
+
+    private static void updateLoadProgress(ProgressMonitor progressMonitor, double[] progress, int index, double value) {
+        SwingUtilities.invokeLater(() -> {
+            progress[index] = value;
+            progressMonitor.setProgress((int) ((progress[0] + progress[1]) * 100));
+            progressMonitor.setNote(String.format("Reference %.0f%%, subject %.0f%%", progress[0] * 100, progress[1] * 100));
+        });
+    }
+
+    /**
+     * @return the first error among finished futures that isn't a cancellation, or {@code null} if there is none
+     */
+    private static Throwable firstFailure(CompletableFuture<?>... futures) {
+        for (CompletableFuture<?> future : futures) {
+            if (!future.isCompletedExceptionally()) {
+                continue;
+            }
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException ex) {
+                Throwable cause = rootCause(ex);
+                if (!(cause instanceof CancellationException)) {
+                    return cause;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Throwable rootCause(Throwable ex) {
+        Throwable cause = ex;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
     }
 
     private void loadComponentValues() {
@@ -829,9 +1156,44 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         referenceRecordingOffsetFramesField.setText(prefs.get("reference.recording.start.frames", ""));
         thresholdConstantField.setText(prefs.get("clapdetect.threshold.constant", ""));
         decisionThresholdField.setText(prefs.get("clapdetect.decision.threshold", ""));
-        shortTermDurationField.setText(prefs.get("clapdetect.shortterm.duration", ""));
-        longTermDurationField.setText(prefs.get("clapdetect.longterm.duration", ""));
-        maxAllowedClapDurationField.setText(prefs.get("clapdetect.clap.maxlength", ""));
+        shortTermDurationField.setText(durationPreference(ACDRClapDetect.Parameters.SHORT_TERM_MILLIS_KEY,
+                ACDRClapDetect.Parameters.SHORT_TERM_DURATION_KEY, ""));
+        longTermDurationField.setText(durationPreference(ACDRClapDetect.Parameters.LONG_TERM_MILLIS_KEY,
+                ACDRClapDetect.Parameters.LONG_TERM_DURATION_KEY, ""));
+        maxAllowedClapDurationField.setText(durationPreference(ACDRClapDetect.Parameters.MAX_CLAP_MILLIS_KEY,
+                ACDRClapDetect.Parameters.MAX_ALLOWED_CLAP_DURATION_KEY, ""));
+    }
+
+    /**
+     * Reads a duration preference in milliseconds, falling back to one stored in samples at 8 kHz by older versions.
+     */
+    private String durationPreference(String key, String legacyKey, String defaultValue) {
+        String value = prefs.get(key, null);
+        if (value != null) {
+            return value;
+        }
+        try {
+            String legacy = prefs.get(legacyKey, null);
+            if (legacy != null) {
+                return ACDRClapDetect.Parameters.formatMillis(ACDRClapDetect.Parameters.LEGACY_CONTEXT.toMillis(Integer.parseInt(legacy)));
+            }
+        } catch (NumberFormatException ex) {
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Points playback at the sources that are enabled for it.
+     */
+    private void updatePlaybackSources() {
+        List<SampleSource> sources = new ArrayList<>();
+        if (referenceEnabledCheckBox.isSelected() && referenceSampleSource != null) {
+            sources.add(referenceSampleSource);
+        }
+        if (subjectEnabledCheckBox.isSelected() && subjectSampleSource != null) {
+            sources.add(subjectSampleSource);
+        }
+        playbackEngine.setSources(sources.toArray(new SampleSource[0]));
     }
 
     private void referenceRecordingUpdated(String value) {
@@ -853,6 +1215,103 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         }
     }
 
+    private ACDRClapDetect.Parameters clapDetectParameters() {
+        ACDRClapDetect.Parameters params = new ACDRClapDetect.Parameters();
+        try {
+            params.setThresholdConstant(Integer.parseInt(thresholdConstantField.getText()));
+        } catch (NumberFormatException ex) {}
+        try {
+            params.setDecisionThreshold(Integer.parseInt(decisionThresholdField.getText()));
+        } catch (NumberFormatException ex) {}
+        try {
+            params.setShortTermMillis(Double.parseDouble(shortTermDurationField.getText()));
+        } catch (NumberFormatException ex) {}
+        try {
+            params.setLongTermMillis(Double.parseDouble(longTermDurationField.getText()));
+        } catch (NumberFormatException ex) {}
+        try {
+            params.setMaxClapMillis(Double.parseDouble(maxAllowedClapDurationField.getText()));
+        } catch (NumberFormatException ex) {}
+        // Only set by loading tuned parameters, as it has no field of its own
+        params.setClapAdvanceMillis(Double.parseDouble(durationPreference(ACDRClapDetect.Parameters.CLAP_ADVANCE_MILLIS_KEY,
+                ACDRClapDetect.Parameters.CLAP_ADVANCE_KEY, ACDRClapDetect.Parameters.formatMillis(params.getClapAdvanceMillis()))));
+        return params;
+    }
+
+    private void showClapDetectResult(ClapDetectResult result) {
+        clapCandidates = result.getCandidatePositions();
+        clapCandidateJitters = result.getCandidateAverageJitters();
+        clapCandidateIndex = 0;
+        nextCandidateButton.setEnabled(clapCandidates.length > 1);
+        if (result.getBestPosition() == 0) {
+            clapPositionLabel.setText("Unable to detect claps");
+        } else {
+            clapPositionLabel.setText("Clap position: " + String.format("%.2fs", analysisContext.seconds(result.getBestPosition())));
+            positionTextField.setText(String.valueOf(result.getBestPosition()));
+            refineClapPosition(result.getBestPosition(), "Clap position");
+        }
+    }
+
+    /**
+     * Finds the exact onset of a detected clap in the background, and moves the cut to it if the position hasn't
+     * been changed in the meantime.
+     * @param position the detected cut position, {@link ACDRClapDetect#POSITION_ADVANCE_MILLIS} after the clap
+     */
+    private void refineClapPosition(int position, String description) {
+        if (!refineOnsetCheckBox.isSelected() || loadedSubjectPath == null) {
+            return;
+        }
+        String subjectPath = loadedSubjectPath;
+        new Thread(() -> {
+            try {
+                int clapIndex = position - analysisContext.samples(ACDRClapDetect.POSITION_ADVANCE_MILLIS);
+                OnsetRefiner.Onset onset = onsetRefiner.refine(subjectPath, clapIndex);
+                if (onset == null) {
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    if (!positionTextField.getText().equals(String.valueOf(position))) {
+                        return;
+                    }
+                    positionTextField.setText(String.valueOf(onset.getPosition()));
+                    clapPositionLabel.setText(String.format("%s: %.3fs, frame %d (refined)",
+                            description, analysisContext.seconds(onset.getPosition()), onset.getPositionFrame()));
+                });
+            } catch (RuntimeException ex) {
+                System.err.println("Unable to refine the clap onset: " + ex.getMessage());
+            }
+        }, "refine-onset").start();
+    }
+
+    private void loadTunedParameters() {
+        JFileChooser fileChooser = new JFileChooser(prefs.get("clapdetect.tuned.path", ""));
+        FileFilter fileFilter = new FileNameExtensionFilter("Tuned Parameters", "properties");
+        fileChooser.addChoosableFileFilter(fileFilter);
+        fileChooser.setFileFilter(fileFilter);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(fileChooser.getSelectedFile().toPath(), StandardCharsets.UTF_8)) {
+            properties.load(in);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Unable to load parameters", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        prefs.put("clapdetect.tuned.path", fileChooser.getSelectedFile().getParent());
+
+        // The fields store their values in the preferences, which makes these the defaults from now on
+        ACDRClapDetect.Parameters params = ACDRClapDetect.Parameters.fromProperties(properties);
+        thresholdConstantField.setText(String.valueOf(params.getThresholdConstant()));
+        decisionThresholdField.setText(String.valueOf(params.getDecisionThreshold()));
+        shortTermDurationField.setText(ACDRClapDetect.Parameters.formatMillis(params.getShortTermMillis()));
+        longTermDurationField.setText(ACDRClapDetect.Parameters.formatMillis(params.getLongTermMillis()));
+        maxAllowedClapDurationField.setText(ACDRClapDetect.Parameters.formatMillis(params.getMaxClapMillis()));
+        prefs.put(ACDRClapDetect.Parameters.CLAP_ADVANCE_MILLIS_KEY, ACDRClapDetect.Parameters.formatMillis(params.getClapAdvanceMillis()));
+        clapPositionLabel.setText("Loaded tuned parameters");
+    }
+
     int referenceRecordingStartSample() {
         int startSeconds = 0;
         int startFrames = 0;
@@ -861,7 +1320,7 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
             startFrames = Integer.parseInt(referenceRecordingOffsetFramesField.getText());
         } catch (NumberFormatException ex) {
         }
-        return startSeconds * 8000 + startFrames * 8000 / 30;
+        return analysisContext.samplesForSeconds(startSeconds) + analysisContext.samplesForSeconds(startFrames / referenceFrameRate);
     }
 
     private void referenceStartSecondsUpdated(int seconds) {
@@ -888,9 +1347,10 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
 
     private void positionFieldChanged(int position) {
         subjectSampleSource.setOffset(referenceRecordingStartSample() - position);
+        playbackEngine.setAnchor(referenceRecordingStartSample());
         sampleViewer.revalidate();
         sampleViewer.repaint();
-        clapPositionLabel.setText(String.format("Position set to %.2fs", position / 8000f));
+        clapPositionLabel.setText(String.format("Position set to %.2fs", analysisContext.seconds(position)));
 //        Rectangle rect = new Rectangle(position - sampleViewerPane.getWidth(), 0, sampleViewerPane.getWidth(), sampleViewerPane.getHeight());
 //        sampleViewer.scrollRectToVisible(rect);
     }
@@ -903,16 +1363,16 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         prefs.put("clapdetect.decision.threshold", String.valueOf(decisionThreshold));
     }
 
-    private void shortTermDurationChanged(int shortTermDuraton) {
-        prefs.put("clapdetect.shortterm.duration", String.valueOf(shortTermDuraton));
+    private void shortTermDurationChanged(double shortTermMillis) {
+        prefs.put(ACDRClapDetect.Parameters.SHORT_TERM_MILLIS_KEY, ACDRClapDetect.Parameters.formatMillis(shortTermMillis));
     }
 
-    private void longTermDurationChanged(int longTermDuration) {
-        prefs.put("clapdetect.longterm.duration", String.valueOf(longTermDuration));
+    private void longTermDurationChanged(double longTermMillis) {
+        prefs.put(ACDRClapDetect.Parameters.LONG_TERM_MILLIS_KEY, ACDRClapDetect.Parameters.formatMillis(longTermMillis));
     }
 
-    private void maxAllowedClapLengthChanged(int maxAllowedClapLength) {
-        prefs.put("clapdetect.clap.maxlength", String.valueOf(maxAllowedClapLength));
+    private void maxAllowedClapLengthChanged(double maxClapMillis) {
+        prefs.put(ACDRClapDetect.Parameters.MAX_CLAP_MILLIS_KEY, ACDRClapDetect.Parameters.formatMillis(maxClapMillis));
     }
 
     @Override
@@ -931,4 +1391,49 @@ public final class ConvertFrame extends JFrame implements Consumer<SampleViewer.
         String newValue = String.valueOf(offsetStart - e.getDistance());
         positionTextField.setText(newValue);
     }
+
+    /**
+     * Looks for claps in a subject as it is decoded. Only the samples that arrived since the last look are scanned,
+     * unless the parameters changed, when the scan starts over with the new ones.
+     */
+    private static class CandidateScan implements SampleStreamListener {
+        private final AnalysisContext context;
+        private ACDRClapDetect.Parameters parameters;
+        private StreamingACDRClapDetect detector;
+        private int scanned;
+
+        CandidateScan(ACDRClapDetect.Parameters parameters, AnalysisContext context) {
+            this.context = context;
+            restart(parameters);
+        }
+
+        private void restart(ACDRClapDetect.Parameters parameters) {
+            this.parameters = parameters;
+            detector = new StreamingACDRClapDetect(parameters, 4, context);
+            detector.setStopWhenConfirmed(false);
+            scanned = 0;
+        }
+
+        @Override
+        public boolean samplesDecoded(ShortBuffer samples) {
+            scanned += samples.remaining();
+            detector.samplesDecoded(samples);
+            // Running out of room for claps mustn't cut the decode short
+            return true;
+        }
+
+        /**
+         * @param samples everything decoded so far, from the start
+         * @return the claps in the samples, found with the given parameters
+         */
+        ClapDetectResult update(ShortBuffer samples, ACDRClapDetect.Parameters parameters) {
+            if (!parameters.equals(this.parameters)) {
+                restart(parameters);
+            }
+            if (scanned < samples.limit()) {
+                samplesDecoded(samples.duplicate().position(scanned));
+            }
+            return detector.getResult();
+        }
+    }
 }
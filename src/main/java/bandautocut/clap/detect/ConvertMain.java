@@ -1,16 +1,11 @@
 package bandautocut.clap.detect;
 
-import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
-import com.github.kokorin.jaffree.ffmpeg.NullOutput;
-import com.github.kokorin.jaffree.ffmpeg.UrlInput;
-import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicLong;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
@@ -18,29 +13,46 @@ import javax.sound.sampled.SourceDataLine;
 
 public class ConvertMain {
 
+    /** How much audio before the cut is played back for checking. */
+    private static final double PLAYBACK_LEAD_MILLIS = 2500;
+
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
             exitUsage();
         }
         
-        ByteBuffer buf = new AudioResampler().resampleAudio(args[0], 1, 8000);
+        // Only decode as far as needed to find the claps
+        AnalysisContext context = AnalysisContext.defaultContext();
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(new ACDRClapDetect.Parameters(), 4, context);
+        AudioResampler resampler = new AudioResampler();
+        ByteBuffer buf = resampler.resampleAudio(args[0], 1, context.getSampleRate(), detector);
         System.out.println("Buf capacity: " + buf.remaining());
         ShortBuffer samples = buf.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
-        ClapDetectResult clapDetectResult = new ACDRClapDetect(samples).clapDetect(4);
+        ClapDetectResult clapDetectResult = detector.getResult();
         if (clapDetectResult.getBestPosition() == 0) {
             System.err.println("Unable to discover clap position");
             return;
         }
-        System.out.printf("Best clap position: %d (%.2f seconds)\n", clapDetectResult.getBestPosition(), clapDetectResult.getBestPosition() / 8000f);
+        System.out.printf("Best clap position: %d (%.2f seconds)\n", clapDetectResult.getBestPosition(), context.seconds(clapDetectResult.getBestPosition()));
+        int position = clapDetectResult.getBestPosition();
+        OnsetRefiner.Onset onset = new OnsetRefiner(resampler, context).refine(args[0], clapDetectResult.getClapIndex());
+        if (onset != null) {
+            position = onset.getPosition();
+            System.out.printf("Refined clap position: %d (%.4f seconds, frame %d)\n", position, context.seconds(position), onset.getPositionFrame());
+        }
         System.out.flush();
 
-        AudioFormat audioFormat = new AudioFormat(8000, 16, 1, true, samples.order() == ByteOrder.BIG_ENDIAN);
+        AudioFormat audioFormat = context.audioFormat(samples.order() == ByteOrder.BIG_ENDIAN);
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, audioFormat);
         try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info)) {
             line.open(audioFormat, 4096);
             line.start();
-            for (int i = Math.max(0, clapDetectResult.getBestPosition() - 20000); i < clapDetectResult.getBestPosition(); i += 2048) {
-                line.write(buf.array(), i * 2, 4096);
+            byte[] lineBuf = new byte[4096];
+            int end = Math.min(position, samples.limit());
+            for (int i = Math.max(0, position - context.samples(PLAYBACK_LEAD_MILLIS)); i < end; i += 2048) {
+                int length = Math.min(4096, (end - i) * 2);
+                buf.get(i * 2, lineBuf, 0, length);
+                line.write(lineBuf, 0, length);
             }
             line.drain();
             line.stop();
@@ -63,31 +75,13 @@ public class ConvertMain {
             }
         }
 
-        final AtomicLong atomicDuration = new AtomicLong();
-        FFmpeg.atPath()
-                .addInput(UrlInput.fromPath(Path.of(args[0])))
-                .setOverwriteOutput(true)
-                .addOutput(new NullOutput())
-                .setProgressListener(progress -> {
-                    atomicDuration.set(progress.getTimeMillis());
-                })
-                .execute();
-
-        long duration = atomicDuration.get() - clapDetectResult.getBestPosition() / 8;
-        FFmpeg.atPath()
-                .addInput(
-                        UrlInput.fromPath(Path.of(args[0]))
-                        .setPosition(clapDetectResult.getBestPosition() / 8)
-                )
-                .setOverwriteOutput(true)
-                .addArguments("-movflags", "faststart")
-                .setFilter("v", "scale='min(1920,iw)':min'(1080,ih)':force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2")
-                .addOutput(UrlOutput.toUrl(args[1]))
-                .setProgressListener(progress -> {
-                    double percent = 100 * progress.getTimeMillis() / (double) duration;
-                    System.out.printf("Progress: %.2f%%\n", percent);
-                })
-                .execute();
+        VideoCutter cutter = new VideoCutter(resampler.getMediaProbe());
+        long cutMillis = context.millis(position);
+        long duration = cutter.durationMillis(Path.of(args[0])) - cutMillis;
+        cutter.cut(Path.of(args[0]), Path.of(args[1]), cutMillis, progress -> {
+            double percent = 100 * progress / (double) duration;
+            System.out.printf("Progress: %.2f%%\n", percent);
+        });
     }
     
     private static void exitUsage() {
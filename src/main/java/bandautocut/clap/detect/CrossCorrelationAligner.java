@@ -0,0 +1,200 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Aligns a subject recording to a reference recording by cross-correlating a template taken from the subject
+ * against a search window of the reference.
+ * The correlation is computed with FFT overlap-save, reusing the same transform and buffers for every block.
+ */
+public class CrossCorrelationAligner {
+
+    private static final int MIN_FFT_SIZE = 1 << 16;
+
+    private int templateStart;
+    private int templateLength;
+    private int searchStart = 0;
+    private int searchEnd = Integer.MAX_VALUE;
+    private int exclusionRadius;
+
+    private int bestPosition;
+    private double bestScore;
+    private int secondPosition;
+    private double secondScore;
+
+    public CrossCorrelationAligner() {
+        this(AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the recordings, which sets the default template and exclusion radius
+     */
+    public CrossCorrelationAligner(AnalysisContext context) {
+        templateStart = context.samplesForSeconds(30);
+        templateLength = context.samplesForSeconds(20);
+        exclusionRadius = context.samples(250);
+    }
+
+    public AlignmentResult align(ShortBuffer reference, ShortBuffer subject) {
+        int subjectLength = subject.limit();
+        int length = Math.min(templateLength, subjectLength);
+        int start = Math.max(0, Math.min(templateStart, subjectLength - length));
+        int first = Math.max(0, searchStart);
+        int last = Math.min(searchEnd, reference.limit()) - length;
+        if (length <= 0 || last < first) {
+            throw new IllegalArgumentException("Recordings are too short to align");
+        }
+
+        int fftSize = Math.max(MIN_FFT_SIZE, Integer.highestOneBit(length) << 2);
+        FFT fft = new FFT(fftSize);
+
+        double[] templateRe = new double[fftSize];
+        double[] templateIm = new double[fftSize];
+        double templateEnergy = 0;
+        for (int i = 0; i < length; i++) {
+            double value = subject.get(start + i);
+            templateRe[i] = value;
+            templateEnergy += value * value;
+        }
+        fft.transform(templateRe, templateIm);
+        double templateNorm = Math.sqrt(templateEnergy);
+
+        double[] re = new double[fftSize];
+        double[] im = new double[fftSize];
+        int step = fftSize - length + 1;
+
+        bestPosition = first;
+        bestScore = Double.NEGATIVE_INFINITY;
+        secondPosition = -1;
+        secondScore = 0;
+
+        // The template is real, so two blocks can share one transform: one in the real part and one in the imaginary
+        // part. The correlation is linear, so the two results come back separated in the same way.
+        for (int blockStart = first; blockStart <= last; blockStart += 2 * step) {
+            int secondBlockStart = blockStart + step;
+            fillBlock(reference, blockStart, re);
+            fillBlock(reference, secondBlockStart, im);
+
+            fft.transform(re, im);
+            for (int i = 0; i < fftSize; i++) {
+                // Multiply by the conjugate of the template's spectrum to correlate rather than convolve
+                double xr = re[i];
+                double xi = im[i];
+                re[i] = xr * templateRe[i] + xi * templateIm[i];
+                im[i] = xi * templateRe[i] - xr * templateIm[i];
+            }
+            fft.inverse(re, im);
+
+            scanBlock(reference, blockStart, Math.min(step, last - blockStart + 1), length, templateNorm, re);
+            if (secondBlockStart <= last) {
+                scanBlock(reference, secondBlockStart, Math.min(step, last - secondBlockStart + 1), length, templateNorm, im);
+            }
+        }
+
+        AlignmentResult result = new AlignmentResult();
+        result.setLag(bestPosition - start);
+        result.setConfidence(Math.max(0, bestScore));
+        result.setPeakRatio(secondPosition >= 0 && secondScore > 0 ? bestScore / secondScore : Double.POSITIVE_INFINITY);
+        return result;
+    }
+
+    private static void fillBlock(ShortBuffer reference, int blockStart, double[] block) {
+        int available = Math.max(0, Math.min(block.length, reference.limit() - blockStart));
+        for (int i = 0; i < available; i++) {
+            block[i] = reference.get(blockStart + i);
+        }
+        Arrays.fill(block, available, block.length, 0);
+    }
+
+    /**
+     * Normalizes the correlations of one block and keeps track of the best and runner-up peaks.
+     */
+    private void scanBlock(ShortBuffer reference, int blockStart, int count, int length, double templateNorm, double[] correlation) {
+        // Energy of the reference under the template, recomputed per block so rounding errors don't accumulate
+        double windowEnergy = 0;
+        for (int i = 0; i < length; i++) {
+            double value = reference.get(blockStart + i);
+            windowEnergy += value * value;
+        }
+
+        for (int j = 0; j < count; j++) {
+            int position = blockStart + j;
+            double denominator = templateNorm * Math.sqrt(Math.max(0, windowEnergy));
+            double score = denominator > 0 ? correlation[j] / denominator : 0;
+
+            if (score > bestScore) {
+                if (Math.abs(position - bestPosition) > exclusionRadius && bestScore > secondScore) {
+                    secondScore = bestScore;
+                    secondPosition = bestPosition;
+                }
+                bestScore = score;
+                bestPosition = position;
+            } else if (score > secondScore && Math.abs(position - bestPosition) > exclusionRadius) {
+                secondScore = score;
+                secondPosition = position;
+            }
+
+            if (position + length < reference.limit()) {
+                double leaving = reference.get(position);
+                double entering = reference.get(position + length);
+                windowEnergy += entering * entering - leaving * leaving;
+            }
+        }
+    }
+
+    public int getTemplateStart() {
+        return templateStart;
+    }
+
+    /**
+     * @param templateStart the first subject sample of the template
+     */
+    public void setTemplateStart(int templateStart) {
+        this.templateStart = templateStart;
+    }
+
+    public int getTemplateLength() {
+        return templateLength;
+    }
+
+    /**
+     * @param templateLength the length of the template, in samples
+     */
+    public void setTemplateLength(int templateLength) {
+        this.templateLength = templateLength;
+    }
+
+    public int getSearchStart() {
+        return searchStart;
+    }
+
+    /**
+     * @param searchStart the first reference sample the template may line up with
+     */
+    public void setSearchStart(int searchStart) {
+        this.searchStart = searchStart;
+    }
+
+    public int getSearchEnd() {
+        return searchEnd;
+    }
+
+    /**
+     * @param searchEnd the reference sample after which the template may not extend
+     */
+    public void setSearchEnd(int searchEnd) {
+        this.searchEnd = searchEnd;
+    }
+
+    public int getExclusionRadius() {
+        return exclusionRadius;
+    }
+
+    /**
+     * @param exclusionRadius how far from the best peak, in samples, the runner-up peak has to be
+     */
+    public void setExclusionRadius(int exclusionRadius) {
+        this.exclusionRadius = exclusionRadius;
+    }
+}
@@ -0,0 +1,243 @@
+package bandautocut.clap.detect;
+
+import com.github.kokorin.jaffree.ffmpeg.ChannelOutput;
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.FFmpegResult;
+import com.github.kokorin.jaffree.ffmpeg.FFmpegResultFuture;
+import com.github.kokorin.jaffree.ffmpeg.UrlInput;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A single decode of an input's audio to s16le, which can report progress and be cancelled from another thread.
+ * @see AudioResampler#createJob(String, int, int)
+ */
+public class DecodeJob {
+
+    private static final int REPLAY_CHUNK_SAMPLES = 65536;
+
+    private final MediaProbe mediaProbe;
+    private final DecodedAudioCache cache;
+    private final String inputPath;
+    private final int numberOfChannels;
+    private final int sampleRate;
+
+    private SampleStreamListener listener;
+    private DoubleConsumer progressListener;
+    private long startMillis;
+    private long durationMillis = -1;
+
+    private volatile boolean cancelled;
+    private volatile FFmpegResultFuture future;
+
+    DecodeJob(MediaProbe mediaProbe, DecodedAudioCache cache, String inputPath, int numberOfChannels, int sampleRate) {
+        this.mediaProbe = mediaProbe;
+        this.cache = cache;
+        this.inputPath = inputPath;
+        this.numberOfChannels = numberOfChannels;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Runs the decode on the calling thread.
+     * @return the decoded s16le audio, in a direct little endian buffer
+     * @throws CancellationException if the job was cancelled
+     */
+    public ByteBuffer execute() {
+        checkCancelled();
+        if (cache != null) {
+            ByteBuffer cached = cache.lookup(Path.of(inputPath), numberOfChannels, sampleRate);
+            if (cached != null) {
+                System.out.println("Using cached audio for " + inputPath);
+                cached = slice(cached);
+                if (listener != null) {
+                    replay(cached, listener);
+                }
+                reportProgress(1);
+                return cached;
+            }
+        }
+
+        double durationSeconds = mediaProbe.probeDurationSeconds(inputPath);
+        if (isRanged()) {
+            // Only the window is decoded, so size the store and the progress for the window
+            if (durationSeconds > 0) {
+                durationSeconds = Math.max(0, durationSeconds - startMillis / 1000.0);
+            }
+            if (durationMillis >= 0 && (durationSeconds < 0 || durationMillis / 1000.0 < durationSeconds)) {
+                durationSeconds = durationMillis / 1000.0;
+            }
+        }
+        final double expectedSeconds = durationSeconds;
+        PcmStore pcmStore = new PcmStore(PcmStore.expectedBytes(expectedSeconds, numberOfChannels, sampleRate));
+        SampleStreamChannel streamChannel = new SampleStreamChannel(pcmStore, listener);
+        UrlInput input = UrlInput.fromPath(Path.of(inputPath));
+        if (startMillis > 0) {
+            input.setPosition(startMillis);
+        }
+        if (durationMillis >= 0) {
+            input.setDuration(durationMillis);
+        }
+        checkCancelled();
+        future = FFmpeg.atPath()
+                .addInput(input)
+                .addArgument("-vn") // no video
+                .addArguments("-ac", String.valueOf(numberOfChannels))
+                .addArguments("-ar", String.valueOf(sampleRate))
+                .addArguments("-f", "s16le")
+                .addArguments("-acodec", "pcm_s16le")
+                .addOutput(ChannelOutput.toChannel("out.raw", streamChannel))
+                .setProgressListener(progress -> {
+                    Long timeMillis = progress.getTimeMillis();
+                    if (expectedSeconds > 0 && timeMillis != null) {
+                        reportProgress(Math.min(1, timeMillis / (expectedSeconds * 1000)));
+                    }
+                })
+                .executeAsync();
+        streamChannel.setStopAction(future::forceStop);
+        if (cancelled) {
+            future.forceStop();
+        }
+
+        try {
+            FFmpegResult result = future.get();
+            System.out.println("Audio Size: " + result.getAudioSize());
+        } catch (InterruptedException ex) {
+            future.forceStop();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while decoding " + inputPath, ex);
+        } catch (ExecutionException ex) {
+            checkCancelled();
+            if (!streamChannel.isStopped()) {
+                throw new IllegalStateException("Unable to decode " + inputPath, ex.getCause());
+            }
+            System.out.println("Decoding stopped early at " + pcmStore.size() + " bytes");
+        }
+        checkCancelled();
+        reportProgress(1);
+
+        System.out.printf("PCM store: %d bytes decoded, %d bytes copied, %d bytes peak\n",
+                pcmStore.size(), pcmStore.getBytesCopied(), pcmStore.getPeakBytes());
+        ByteBuffer pcm = pcmStore.toByteBuffer();
+        if (cache != null && !streamChannel.isStopped() && !isRanged()) {
+            // Partial decodes aren't cached, since they would be mistaken for the whole recording
+            cache.store(Path.of(inputPath), numberOfChannels, sampleRate, pcm);
+        }
+        if (!streamChannel.isStopped() && !isRanged()) {
+            mediaProbe.recordDecodedDuration(inputPath, (double) pcm.limit() / (2L * numberOfChannels * sampleRate));
+        }
+        return pcm;
+    }
+
+    /**
+     * Cancels the job, stopping ffmpeg if it's running. {@link #execute()} then throws a {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+        FFmpegResultFuture running = future;
+        if (running != null) {
+            running.forceStop();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Decoding " + inputPath + " was cancelled");
+        }
+    }
+
+    private void reportProgress(double progress) {
+        if (progressListener != null) {
+            progressListener.accept(progress);
+        }
+    }
+
+    private boolean isRanged() {
+        return startMillis > 0 || durationMillis >= 0;
+    }
+
+    /**
+     * Cuts the decode's window out of a whole cached recording.
+     */
+    private ByteBuffer slice(ByteBuffer pcm) {
+        if (!isRanged()) {
+            return pcm;
+        }
+        long frameBytes = 2L * numberOfChannels;
+        long from = Math.min(pcm.limit(), startMillis * sampleRate / 1000 * frameBytes);
+        long to = durationMillis < 0 ? pcm.limit() : Math.min(pcm.limit(), from + durationMillis * sampleRate / 1000 * frameBytes);
+        return pcm.slice((int) from, (int) (to - from)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Feeds cached audio to a listener as if it was coming from the decoder.
+     */
+    private static void replay(ByteBuffer pcm, SampleStreamListener listener) {
+        ShortBuffer samples = pcm.duplicate().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        int total = samples.limit();
+        for (int start = 0; start < total; start += REPLAY_CHUNK_SAMPLES) {
+            ShortBuffer chunk = samples.duplicate();
+            chunk.limit(Math.min(total, start + REPLAY_CHUNK_SAMPLES));
+            chunk.position(start);
+            if (!listener.samplesDecoded(chunk)) {
+                return;
+            }
+        }
+    }
+
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    /**
+     * Limits the decode to a window of the input, like ffmpeg's {@code -ss} and {@code -t}. Windows are not cached,
+     * but are cut out of the whole recording if that is.
+     * @param durationMillis the length of the window, or -1 to decode to the end
+     */
+    public DecodeJob setRange(long startMillis, long durationMillis) {
+        this.startMillis = Math.max(0, startMillis);
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public SampleStreamListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener the listener to receive decoded samples as they arrive; returning {@code false} stops the decode
+     */
+    public DecodeJob setListener(SampleStreamListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public DoubleConsumer getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * @param progressListener receives the fraction of the input decoded so far, from 0 to 1, on the decoding thread
+     */
+    public DecodeJob setProgressListener(DoubleConsumer progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+}
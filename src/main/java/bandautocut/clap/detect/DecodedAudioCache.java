@@ -0,0 +1,215 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of decoded s16le audio, keyed by the identity of the source file and the decode format.
+ * Entries are memory-mapped when they are read back, and the least recently used entries are evicted
+ * once the cache grows past its size budget.
+ */
+public class DecodedAudioCache {
+
+    private static final String EXTENSION = ".s16le";
+    private static final int HASH_SAMPLE_BYTES = 1 << 20;
+
+    private static DecodedAudioCache defaultCache;
+
+    private final Path directory;
+    private final long budgetBytes;
+    private boolean contentHashEnabled;
+
+    public DecodedAudioCache(Path directory, long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * The cache shared by all entry points, in {@code ~/.cache/clap-detect} unless overridden by the
+     * {@code clapdetect.cache.dir} and {@code clapdetect.cache.budget} (bytes) system properties.
+     */
+    public static synchronized DecodedAudioCache defaultCache() {
+        if (defaultCache == null) {
+            String dir = System.getProperty("clapdetect.cache.dir");
+            Path path = dir != null ? Path.of(dir) : Path.of(System.getProperty("user.home"), ".cache", "clap-detect");
+            long budget = Long.getLong("clapdetect.cache.budget", 4L << 30);
+            defaultCache = new DecodedAudioCache(path, budget);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Looks up previously decoded audio.
+     * @return a read-only, little endian mapping of the cached audio, or {@code null} if it isn't cached
+     */
+    public synchronized ByteBuffer lookup(Path input, int numberOfChannels, int sampleRate) {
+        try {
+            Path entry = entryPath(input, numberOfChannels, sampleRate);
+            if (!Files.isRegularFile(entry)) {
+                return null;
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException ex) {
+            System.err.println("Unable to read cached audio for " + input + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores decoded audio, evicting old entries if the cache goes over its budget.
+     */
+    public synchronized void store(Path input, int numberOfChannels, int sampleRate, ByteBuffer pcm) {
+        if (pcm.remaining() > budgetBytes) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path entry = entryPath(input, numberOfChannels, sampleRate);
+            Path temp = Files.createTempFile(directory, "decode", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer src = pcm.duplicate();
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            } catch (IOException ex) {
+                Files.deleteIfExists(temp);
+                throw ex;
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException ex) {
+            System.err.println("Unable to cache decoded audio for " + input + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Removes least recently used entries until the cache fits in its budget.
+     */
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().endsWith(EXTENSION)).forEach(entries::add);
+        }
+
+        long totalBytes = 0;
+        for (Path entry : entries) {
+            totalBytes += Files.size(entry);
+        }
+        if (totalBytes <= budgetBytes) {
+            return;
+        }
+
+        entries.sort(Comparator.comparing(p -> {
+            try {
+                return Files.getLastModifiedTime(p);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+        for (Path entry : entries) {
+            if (totalBytes <= budgetBytes) {
+                break;
+            }
+            long entrySize = Files.size(entry);
+            Files.deleteIfExists(entry);
+            totalBytes -= entrySize;
+        }
+    }
+
+    private Path entryPath(Path input, int numberOfChannels, int sampleRate) throws IOException {
+        Path absolute = input.toAbsolutePath().normalize();
+        StringBuilder identity = new StringBuilder()
+                .append(absolute).append('|')
+                .append(Files.size(absolute)).append('|')
+                .append(Files.getLastModifiedTime(absolute).toMillis()).append('|')
+                .append(numberOfChannels).append('|')
+                .append(sampleRate);
+        MessageDigest digest = sha256();
+        digest.update(identity.toString().getBytes(StandardCharsets.UTF_8));
+        if (contentHashEnabled) {
+            digest.update(contentSample(absolute));
+        }
+        return directory.resolve(toHex(digest.digest()) + EXTENSION);
+    }
+
+    /**
+     * Reads the first and last megabyte of the file, which is enough to tell apart files that were
+     * replaced while keeping their size and modification time.
+     */
+    private static byte[] contentSample(Path input) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int headLength = (int) Math.min(size, HASH_SAMPLE_BYTES);
+            int tailLength = (int) Math.min(size - headLength, HASH_SAMPLE_BYTES);
+            ByteBuffer sample = ByteBuffer.allocate(headLength + tailLength);
+            readFully(channel, sample.limit(headLength), 0);
+            readFully(channel, sample.limit(headLength + tailLength), size - tailLength);
+            return sample.array();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long filePosition) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, filePosition);
+            if (read < 0) {
+                break;
+            }
+            filePosition += read;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public boolean isContentHashEnabled() {
+        return contentHashEnabled;
+    }
+
+    /**
+     * Also hashes part of the file contents into the key, at the cost of reading it on every lookup.
+     */
+    public void setContentHashEnabled(boolean contentHashEnabled) {
+        this.contentHashEnabled = contentHashEnabled;
+    }
+}
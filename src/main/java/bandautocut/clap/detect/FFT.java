@@ -0,0 +1,89 @@
+package bandautocut.clap.detect;
+
+/**
+ * In-place radix-2 complex FFT of a fixed size.
+ * The twiddle factors and bit reversal permutation are computed once, so a transform doesn't allocate.
+ */
+public class FFT {
+
+    private final int size;
+    private final int[] bitReverse;
+    private final double[] twiddleRe;
+    private final double[] twiddleIm;
+
+    public FFT(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        bitReverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        // Twiddle factors of every stage, stored contiguously at [half, 2 * half) so each stage reads them in order
+        twiddleRe = new double[size];
+        twiddleIm = new double[size];
+        for (int half = 1; half < size; half <<= 1) {
+            for (int k = 0; k < half; k++) {
+                double angle = Math.PI * k / half;
+                twiddleRe[half + k] = Math.cos(angle);
+                twiddleIm[half + k] = -Math.sin(angle);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forward transform.
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReverse[i];
+            if (i < j) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+
+        for (int half = 1; half < size; half <<= 1) {
+            int length = half << 1;
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = twiddleRe[half + k];
+                    double wi = twiddleIm[half + k];
+                    int a = start + k;
+                    int b = a + half;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverse transform, including the 1/n scaling.
+     */
+    public void inverse(double[] re, double[] im) {
+        // The inverse is the forward transform with real and imaginary parts swapped
+        transform(im, re);
+        double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+}
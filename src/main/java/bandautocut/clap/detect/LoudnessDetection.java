@@ -3,22 +3,64 @@ package bandautocut.clap.detect;
 import java.nio.ShortBuffer;
 
 /**
- *
+ * Works out a gain for quiet recordings from their {@link StreamingLoudness}, for the viewer and for the detectors'
+ * thresholds.
  */
 public class LoudnessDetection {
 
+    /** The block peaks the gain is taken from; the loudest hundredth, clicks and claps among them, are ignored. */
+    private static final double PEAK_PERCENTILE = 0.99;
+    private static final float TARGET_LEVEL = 0.95f;
+    private static final float MAX_MULTIPLIER = 64;
+
+    private final AnalysisContext context;
+
+    public LoudnessDetection() {
+        this(AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the samples the multiplier is worked out for
+     */
+    public LoudnessDetection(AnalysisContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Scans the whole buffer. Prefer attaching a {@link StreamingLoudness} to the decode, which costs no extra pass.
+     */
     public float suggestMultiplier(ShortBuffer buf) {
-        float maxMagnitude = 0;
-        for (int i = 0; i < buf.limit() && i < 8000 * 30; i++) {
-            short sample = buf.get(i);
-            float magnitude = Math.abs(sample / (float) Short.MAX_VALUE);
-            maxMagnitude = Math.max(maxMagnitude, magnitude);
-        }
-        
-        if (maxMagnitude < 0.5f) {
-            return (1 / maxMagnitude) * 0.95f;
+        return suggestMultiplier(StreamingLoudness.of(buf, context));
+    }
+
+    /**
+     * @return the gain that brings most of the recording's peaks close to full scale, or 1 if they are at least half
+     * of full scale already
+     */
+    public float suggestMultiplier(StreamingLoudness loudness) {
+        float maxMagnitude = (float) StreamingLoudness.fraction(loudness.getPeakPercentile(PEAK_PERCENTILE));
+
+        if (maxMagnitude > 0 && maxMagnitude < 0.5f) {
+            return Math.min(MAX_MULTIPLIER, (1 / maxMagnitude) * TARGET_LEVEL);
         }
-        
+
         return 1f;
     }
+
+    /**
+     * Lowers the detection thresholds of a quiet recording as if its samples were amplified by
+     * {@link #suggestMultiplier(StreamingLoudness)}, so claps that are loud for the recording are found.
+     * @return the parameters unchanged if the recording needs no gain, otherwise an adjusted copy
+     */
+    public ACDRClapDetect.Parameters adaptParameters(ACDRClapDetect.Parameters parameters, StreamingLoudness loudness) {
+        float multiplier = suggestMultiplier(loudness);
+        if (multiplier == 1) {
+            return parameters;
+        }
+        ACDRClapDetect.Parameters adapted = new ACDRClapDetect.Parameters(parameters);
+        // The likeliness is a squared magnitude, so it scales with the square of the gain
+        adapted.setThresholdConstant(Math.round(parameters.getThresholdConstant() / multiplier));
+        adapted.setDecisionThreshold((int) (parameters.getDecisionThreshold() / ((double) multiplier * multiplier)));
+        return adapted;
+    }
 }
@@ -2,34 +2,90 @@ package bandautocut.clap.detect;
 
 /**
  * Detect the best clap position by finding the lowest jitter between claps.
+ * <p>
+ * A sequence is {@code numberOfClapsInSequence} consecutive claps, and its jitter is the sum of the differences
+ * between successive intervals. The sum is slid along the claps one interval at a time, and the best sequences are
+ * kept in a ranked list that is allocated once and reused between searches.
  */
 public class LowestJitter {
-    
+
+    public static final int DEFAULT_CANDIDATES = 1;
+
+    private final int maxCandidates;
+    private final LowestJitterResult result;
+
+    public LowestJitter() {
+        this(DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * @param maxCandidates how many of the best sequences to keep
+     */
+    public LowestJitter(int maxCandidates) {
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("maxCandidates must be at least 1");
+        }
+        this.maxCandidates = maxCandidates;
+        this.result = new LowestJitterResult(maxCandidates);
+    }
+
+    /**
+     * Finds the sequences with the lowest jitter.
+     * @return the ranked sequences. The result is reused by the next search on this instance.
+     */
     public LowestJitterResult findLowestJitter(int[] claps, int numberOfClapsDetected, int numberOfClapsInSequence) {
-        var result = new LowestJitterResult();
-        int bestJitter = Integer.MAX_VALUE;
-        int bestPosition = -1;
-        
-        for (int i = numberOfClapsInSequence; i < numberOfClapsDetected; i++) {
-            int previousDistance = claps[i] - claps[i - numberOfClapsInSequence];
-            int totalJitter = 0;
-            for (int j = i - numberOfClapsInSequence + 1; j < i; j++) {
-                int currentDistance = claps[j] - claps[j - 1];
-                int currentJitter = Math.abs(currentDistance - previousDistance);
-                totalJitter += currentJitter;
-                previousDistance = currentDistance;
-//                System.out.printf("Current distance at %d: %d clap1: %d clap2: %d\n", j, currentDistance, claps[j - 1], claps[j]);
+        if (numberOfClapsInSequence < 1) {
+            throw new IllegalArgumentException("numberOfClapsInSequence must be at least 1");
+        }
+        result.reset(numberOfClapsInSequence);
+
+        int totalJitter = 0;
+        for (int end = 0; end < numberOfClapsDetected; end++) {
+            if (numberOfClapsInSequence > 2) {
+                // Slide the window: add the newest interval difference and drop the one that fell out of the sequence
+                totalJitter += intervalDifference(claps, end);
+                int first = end - numberOfClapsInSequence + 2;
+                if (first >= 0) {
+                    totalJitter -= intervalDifference(claps, first);
+                }
             }
-            
-            if (totalJitter < bestJitter) {
-                bestJitter = totalJitter;
-                bestPosition = claps[i];
+
+            int start = end - numberOfClapsInSequence + 1;
+            if (start >= 0) {
+                result.offer(start, end, totalJitter, maxCandidates);
             }
         }
-        
-        result.setAverageJitter(bestJitter / numberOfClapsInSequence);
-        result.setBestPosition(bestPosition);
 
+        result.finish(claps);
         return result;
     }
+
+    /**
+     * Works out the jitter of a single sequence directly.
+     * @param end the index of the last clap in the sequence
+     */
+    public static int totalJitter(int[] claps, int end, int numberOfClapsInSequence) {
+        int totalJitter = 0;
+        for (int i = Math.max(2, end - numberOfClapsInSequence + 3); i <= end; i++) {
+            totalJitter += intervalDifference(claps, i);
+        }
+        return totalJitter;
+    }
+
+    /**
+     * @return the total jitter averaged over the interval differences of a sequence
+     */
+    public static int averageJitter(int totalJitter, int numberOfClapsInSequence) {
+        return numberOfClapsInSequence > 2 ? totalJitter / (numberOfClapsInSequence - 2) : totalJitter;
+    }
+
+    /**
+     * @return how much the interval ending at clap {@code i} differs from the one before it
+     */
+    private static int intervalDifference(int[] claps, int i) {
+        if (i < 2) {
+            return 0;
+        }
+        return Math.abs((claps[i] - claps[i - 1]) - (claps[i - 1] - claps[i - 2]));
+    }
 }
@@ -1,10 +1,88 @@
 package bandautocut.clap.detect;
 
+/**
+ * The best clap sequences found by {@link LowestJitter}, ranked from the lowest jitter.
+ */
 public class LowestJitterResult {
 
-    private int averageJitter;
-    private int bestPosition;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] totalJitters;
+    private int[] deviations = new int[0];
+    private int numberOfCandidates;
+    private int numberOfClapsInSequence;
 
+    private int averageJitter = Integer.MAX_VALUE;
+    private int bestPosition = -1;
+
+    public LowestJitterResult() {
+        this(LowestJitter.DEFAULT_CANDIDATES);
+    }
+
+    LowestJitterResult(int maxCandidates) {
+        starts = new int[maxCandidates];
+        ends = new int[maxCandidates];
+        totalJitters = new int[maxCandidates];
+    }
+
+    void reset(int numberOfClapsInSequence) {
+        this.numberOfClapsInSequence = numberOfClapsInSequence;
+        numberOfCandidates = 0;
+        averageJitter = Integer.MAX_VALUE;
+        bestPosition = -1;
+    }
+
+    /**
+     * Inserts a sequence by rank if it's better than the worst one kept. Ties keep the earlier sequence first.
+     * Positions are stored as clap indices until {@link #finish(int[])}.
+     */
+    void offer(int start, int end, int totalJitter, int maxCandidates) {
+        if (numberOfCandidates == maxCandidates && totalJitter >= totalJitters[numberOfCandidates - 1]) {
+            return;
+        }
+        int i = Math.min(numberOfCandidates, maxCandidates - 1);
+        while (i > 0 && totalJitters[i - 1] > totalJitter) {
+            starts[i] = starts[i - 1];
+            ends[i] = ends[i - 1];
+            totalJitters[i] = totalJitters[i - 1];
+            i--;
+        }
+        starts[i] = start;
+        ends[i] = end;
+        totalJitters[i] = totalJitter;
+        if (numberOfCandidates < maxCandidates) {
+            numberOfCandidates++;
+        }
+    }
+
+    /**
+     * Works out the interval deviations of the kept sequences and turns clap indices into positions.
+     */
+    void finish(int[] claps) {
+        int intervals = Math.max(0, numberOfClapsInSequence - 1);
+        if (deviations.length < numberOfCandidates * intervals) {
+            deviations = new int[starts.length * intervals];
+        }
+        for (int c = 0; c < numberOfCandidates; c++) {
+            int start = starts[c];
+            int end = ends[c];
+            int meanInterval = intervals > 0 ? Math.round((claps[end] - claps[start]) / (float) intervals) : 0;
+            for (int k = 0; k < intervals; k++) {
+                deviations[c * intervals + k] = (claps[start + k + 1] - claps[start + k]) - meanInterval;
+            }
+            starts[c] = claps[start];
+            ends[c] = claps[end];
+        }
+
+        if (numberOfCandidates > 0) {
+            averageJitter = getAverageJitter(0);
+            bestPosition = ends[0];
+        }
+    }
+
+    /**
+     * @return the average jitter of the best sequence, or {@code Integer.MAX_VALUE} if there were too few claps
+     */
     public int getAverageJitter() {
         return averageJitter;
     }
@@ -13,6 +91,9 @@ public class LowestJitterResult {
         this.averageJitter = averageJitter;
     }
 
+    /**
+     * @return the position of the last clap in the best sequence, or -1 if there were too few claps
+     */
     public int getBestPosition() {
         return bestPosition;
     }
@@ -20,4 +101,38 @@ public class LowestJitterResult {
     public void setBestPosition(int bestPosition) {
         this.bestPosition = bestPosition;
     }
+
+    public int getNumberOfCandidates() {
+        return numberOfCandidates;
+    }
+
+    /**
+     * @return the position of the first clap of the sequence at {@code rank}
+     */
+    public int getStart(int rank) {
+        return starts[rank];
+    }
+
+    /**
+     * @return the position of the last clap of the sequence at {@code rank}
+     */
+    public int getEnd(int rank) {
+        return ends[rank];
+    }
+
+    public int getTotalJitter(int rank) {
+        return totalJitters[rank];
+    }
+
+    public int getAverageJitter(int rank) {
+        return LowestJitter.averageJitter(totalJitters[rank], numberOfClapsInSequence);
+    }
+
+    /**
+     * @param interval the interval within the sequence, from 0 to one less than the number of claps in it
+     * @return how many samples the interval is longer than the sequence's mean interval
+     */
+    public int getDeviation(int rank, int interval) {
+        return deviations[rank * (numberOfClapsInSequence - 1) + interval];
+    }
 }
@@ -0,0 +1,124 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Raw 16-bit PCM file mapped into memory in segments, so files larger than 2 GB can be read
+ * without loading them onto the heap.
+ */
+public class MappedPcmFile implements SampleSource {
+
+    private static final int SEGMENT_SHIFT = 29;
+    private static final long SEGMENT_SAMPLES = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SAMPLES - 1;
+
+    private final String name;
+    private final ShortBuffer[] segments;
+    private final long length;
+
+    private MappedPcmFile(String name, ShortBuffer[] segments, long length) {
+        this.name = name;
+        this.segments = segments;
+        this.length = length;
+    }
+
+    /**
+     * Maps a raw PCM file.
+     * @param order the byte order of the samples in the file
+     */
+    public static MappedPcmFile open(Path path, ByteOrder order) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size() / 2;
+            int segmentCount = (int) ((length + SEGMENT_SAMPLES - 1) >>> SEGMENT_SHIFT);
+            ShortBuffer[] segments = new ShortBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long start = i * SEGMENT_SAMPLES;
+                long segmentLength = Math.min(SEGMENT_SAMPLES, length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start * 2, segmentLength * 2)
+                        .order(order)
+                        .asShortBuffer();
+            }
+            return new MappedPcmFile(path.getFileName().toString(), segments, length);
+        }
+    }
+
+    /**
+     * @return the number of samples in the file
+     */
+    @Override
+    public long length() {
+        return length;
+    }
+
+    public short get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return a view of the given segment; each segment except the last holds 2<sup>29</sup> samples
+     */
+    public ShortBuffer segment(int segmentIndex) {
+        return segments[segmentIndex].duplicate();
+    }
+
+    /**
+     * Feeds the whole file to a listener, one segment at a time.
+     * @return {@code false} if the listener stopped before the end of the file
+     */
+    public boolean stream(SampleStreamListener listener) {
+        for (ShortBuffer segment : segments) {
+            if (!listener.samplesDecoded(segment.duplicate())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(length, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public short sampleAt(int position) {
+        if (position < 0 || position >= length) {
+            return 0;
+        }
+        return get(position);
+    }
+
+    @Override
+    public void read(long position, short[] dst, int offset, int length) {
+        int done = 0;
+        while (done < length) {
+            long index = position + done;
+            if (index < 0 || index >= this.length) {
+                // Silence up to the start of the file, or to the end of the read past the end of it
+                int count = index < 0 ? (int) Math.min(length - done, -index) : length - done;
+                Arrays.fill(dst, offset + done, offset + done + count, (short) 0);
+                done += count;
+                continue;
+            }
+            ShortBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+            int segmentIndex = (int) (index & SEGMENT_MASK);
+            int count = Math.min(length - done, segment.limit() - segmentIndex);
+            segment.get(segmentIndex, dst, offset + done, count);
+            done += count;
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+}
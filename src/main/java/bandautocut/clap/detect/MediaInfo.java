@@ -0,0 +1,163 @@
+package bandautocut.clap.detect;
+
+import com.github.kokorin.jaffree.StreamType;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Duration, frame rate and stream layout of a media file, as read by {@link MediaProbe}.
+ */
+public class MediaInfo {
+
+    static final MediaInfo UNKNOWN = new MediaInfo(-1, Collections.emptyList());
+
+    private final double durationSeconds;
+    private final List<StreamInfo> streams;
+
+    public MediaInfo(double durationSeconds, List<StreamInfo> streams) {
+        this.durationSeconds = durationSeconds;
+        this.streams = Collections.unmodifiableList(streams);
+    }
+
+    /**
+     * @return the duration in seconds, or -1 if it isn't known
+     */
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return the duration in milliseconds, or -1 if it isn't known
+     */
+    public long getDurationMillis() {
+        return durationSeconds < 0 ? -1 : Math.round(durationSeconds * 1000);
+    }
+
+    public List<StreamInfo> getStreams() {
+        return streams;
+    }
+
+    /**
+     * @return the first video stream, or {@code null} if there isn't one
+     */
+    public StreamInfo getVideoStream() {
+        return firstOf(StreamType.VIDEO);
+    }
+
+    /**
+     * @return the first audio stream, or {@code null} if there isn't one
+     */
+    public StreamInfo getAudioStream() {
+        return firstOf(StreamType.AUDIO);
+    }
+
+    /**
+     * @return the frame rate of the first video stream, or -1 if it isn't known
+     */
+    public double getFrameRate() {
+        StreamInfo video = getVideoStream();
+        return video == null ? -1 : video.getFrameRate();
+    }
+
+    /**
+     * @return the number of channels of the first audio stream, or -1 if it isn't known
+     */
+    public int getAudioChannels() {
+        StreamInfo audio = getAudioStream();
+        return audio == null ? -1 : audio.getChannels();
+    }
+
+    MediaInfo withDurationSeconds(double durationSeconds) {
+        return new MediaInfo(durationSeconds, streams);
+    }
+
+    private StreamInfo firstOf(StreamType type) {
+        for (StreamInfo stream : streams) {
+            if (stream.getType() == type) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A single stream of a media file. Values that don't apply to the stream's type, or weren't reported, are -1 or
+     * {@code null}.
+     */
+    public static class StreamInfo {
+        private final int index;
+        private final StreamType type;
+        private final String codecName;
+        private final int width;
+        private final int height;
+        private final double frameRate;
+        private final int channels;
+        private final int sampleRate;
+        private final String pixelFormat;
+        private final String profile;
+        private final int level;
+
+        public StreamInfo(int index, StreamType type, String codecName, int width, int height, double frameRate, int channels, int sampleRate,
+                String pixelFormat, String profile, int level) {
+            this.index = index;
+            this.type = type;
+            this.codecName = codecName;
+            this.width = width;
+            this.height = height;
+            this.frameRate = frameRate;
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            this.pixelFormat = pixelFormat;
+            this.profile = profile;
+            this.level = level;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public StreamType getType() {
+            return type;
+        }
+
+        public String getCodecName() {
+            return codecName;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        public String getPixelFormat() {
+            return pixelFormat;
+        }
+
+        public String getProfile() {
+            return profile;
+        }
+
+        /**
+         * @return the codec level as ffprobe reports it, e.g. 41 for h264 level 4.1 or 123 for hevc level 4.1, or -1
+         * if unknown
+         */
+        public int getLevel() {
+            return level;
+        }
+    }
+}
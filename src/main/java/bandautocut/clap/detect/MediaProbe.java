@@ -0,0 +1,181 @@
+package bandautocut.clap.detect;
+
+import com.github.kokorin.jaffree.Rational;
+import com.github.kokorin.jaffree.ffprobe.FFprobe;
+import com.github.kokorin.jaffree.ffprobe.FFprobeResult;
+import com.github.kokorin.jaffree.ffprobe.Packet;
+import com.github.kokorin.jaffree.ffprobe.Stream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads media metadata with ffprobe. Results are kept per file until the file changes, so asking again is free.
+ */
+public class MediaProbe {
+
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @return the metadata of the input, or metadata with an unknown duration and no streams if it can't be probed
+     */
+    public MediaInfo probe(String inputPath) {
+        Path path = Path.of(inputPath).toAbsolutePath();
+        long size = -1;
+        long modified = -1;
+        try {
+            size = Files.size(path);
+            modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException ex) {
+            // Not a local file; probe it every time
+        }
+
+        Entry entry = entries.get(path);
+        if (entry != null && entry.size == size && entry.modified == modified && size >= 0) {
+            return entry.info;
+        }
+
+        MediaInfo info = runProbe(inputPath);
+        if (info != MediaInfo.UNKNOWN && size >= 0) {
+            entries.put(path, new Entry(size, modified, info, null));
+        }
+        return info;
+    }
+
+    /**
+     * @return the duration of the input in seconds, or -1 if it can't be determined
+     */
+    public double probeDurationSeconds(String inputPath) {
+        return probe(inputPath).getDurationSeconds();
+    }
+
+    /**
+     * @return the number of channels in the input's first audio stream, or -1 if it can't be determined
+     */
+    public int probeAudioChannels(String inputPath) {
+        return probe(inputPath).getAudioChannels();
+    }
+
+    /**
+     * Fills in the duration from a complete decode, for inputs whose container doesn't report one.
+     */
+    public void recordDecodedDuration(String inputPath, double durationSeconds) {
+        Path path = Path.of(inputPath).toAbsolutePath();
+        entries.computeIfPresent(path, (p, entry) -> entry.info.getDurationSeconds() < 0
+                ? new Entry(entry.size, entry.modified, entry.info.withDurationSeconds(durationSeconds), entry.keyframes)
+                : entry);
+    }
+
+    /**
+     * Lists the keyframes of the input's first video stream, from its packet flags. Only the container is read, not
+     * the video itself.
+     * @return the keyframe times in seconds, in order, or an empty array if there are none or the input can't be probed
+     */
+    public double[] probeKeyframes(String inputPath) {
+        probe(inputPath);
+        Entry entry = entries.get(Path.of(inputPath).toAbsolutePath());
+        if (entry != null && entry.keyframes != null) {
+            return entry.keyframes;
+        }
+
+        double[] keyframes;
+        try {
+            FFprobeResult result = FFprobe.atPath()
+                    .setShowPackets(true)
+                    .setSelectStreams("v:0")
+                    .setInput(inputPath)
+                    .execute();
+            List<Packet> packets = result.getPackets();
+            keyframes = new double[packets == null ? 0 : packets.size()];
+            int count = 0;
+            if (packets != null) {
+                for (Packet packet : packets) {
+                    if (packet.getPtsTime() != null && packet.getFlags() != null && packet.getFlags().indexOf('K') >= 0) {
+                        keyframes[count++] = packet.getPtsTime();
+                    }
+                }
+            }
+            keyframes = Arrays.copyOf(keyframes, count);
+            // Packets are in decode order, which isn't always presentation order
+            Arrays.sort(keyframes);
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to index keyframes of " + inputPath + ": " + ex.getMessage());
+            return new double[0];
+        }
+
+        if (entry != null && keyframes.length > 0) {
+            entry.keyframes = keyframes;
+        }
+        return keyframes;
+    }
+
+    private static MediaInfo runProbe(String inputPath) {
+        try {
+            FFprobeResult result = FFprobe.atPath()
+                    .setShowFormat(true)
+                    .setShowStreams(true)
+                    .setInput(inputPath)
+                    .execute();
+
+            List<MediaInfo.StreamInfo> streams = new ArrayList<>();
+            double durationSeconds = -1;
+            if (result.getFormat() != null && result.getFormat().getDuration() != null) {
+                durationSeconds = result.getFormat().getDuration();
+            }
+            if (result.getStreams() != null) {
+                for (Stream stream : result.getStreams()) {
+                    streams.add(new MediaInfo.StreamInfo(
+                            valueOf(stream.getIndex()),
+                            stream.getCodecType(),
+                            stream.getCodecName(),
+                            valueOf(stream.getWidth()),
+                            valueOf(stream.getHeight()),
+                            frameRate(stream),
+                            valueOf(stream.getChannels()),
+                            valueOf(stream.getSampleRate()),
+                            stream.getPixFmt(),
+                            stream.getProfile(),
+                            valueOf(stream.getLevel())));
+                    if (durationSeconds < 0 && stream.getDuration() != null) {
+                        durationSeconds = stream.getDuration();
+                    }
+                }
+            }
+            return new MediaInfo(durationSeconds, streams);
+        } catch (RuntimeException ex) {
+            System.err.println("Unable to probe " + inputPath + ": " + ex.getMessage());
+            return MediaInfo.UNKNOWN;
+        }
+    }
+
+    private static double frameRate(Stream stream) {
+        Rational rate = stream.getAvgFrameRate();
+        if (rate == null || !(rate.doubleValue() > 0)) {
+            rate = stream.getRFrameRate();
+        }
+        return rate != null && rate.doubleValue() > 0 ? rate.doubleValue() : -1;
+    }
+
+    private static int valueOf(Integer value) {
+        return value == null ? -1 : value;
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final MediaInfo info;
+        private volatile double[] keyframes;
+
+        Entry(long size, long modified, MediaInfo info, double[] keyframes) {
+            this.size = size;
+            this.modified = modified;
+            this.info = info;
+            this.keyframes = keyframes;
+        }
+    }
+}
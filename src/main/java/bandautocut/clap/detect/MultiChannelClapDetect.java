@@ -0,0 +1,140 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the ACDR detection on every channel of an interleaved recording in parallel, then looks for the clap sequence
+ * in the claps of all channels together. A clap recorded mostly on one side of a stereo or multi-mic rig is found on
+ * that side, instead of being weakened in a downmix.
+ */
+public class MultiChannelClapDetect implements ClapDetect {
+
+    /** Claps on different channels closer than this are taken as the same clap. */
+    static final double FUSION_WINDOW_MILLIS = 20;
+
+    private static final int CHUNK_FRAMES = 65536;
+
+    private final ShortBuffer samples;
+    private final int numberOfChannels;
+    private final ACDRClapDetect.SampleParameters parameters;
+    private final int fusionWindow;
+    private final Executor executor;
+
+    /**
+     * @param samples interleaved samples of all channels
+     */
+    public MultiChannelClapDetect(ShortBuffer samples, int numberOfChannels, ACDRClapDetect.Parameters parameters) {
+        this(samples, numberOfChannels, parameters, AnalysisContext.defaultContext());
+    }
+
+    public MultiChannelClapDetect(ShortBuffer samples, int numberOfChannels, ACDRClapDetect.Parameters parameters, AnalysisContext context) {
+        this(samples, numberOfChannels, parameters, context, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param context the rate of the samples
+     */
+    public MultiChannelClapDetect(ShortBuffer samples, int numberOfChannels, ACDRClapDetect.Parameters parameters,
+            AnalysisContext context, Executor executor) {
+        this.samples = samples;
+        this.numberOfChannels = numberOfChannels;
+        this.parameters = parameters.inSamples(context);
+        this.fusionWindow = context.samples(FUSION_WINDOW_MILLIS);
+        this.executor = executor;
+    }
+
+    @Override
+    public ClapDetectResult clapDetect(int numberOfClaps) {
+        List<CompletableFuture<int[]>> futures = new ArrayList<>(numberOfChannels);
+        for (int channel = 0; channel < numberOfChannels; channel++) {
+            int c = channel;
+            futures.add(CompletableFuture.supplyAsync(() -> detectChannel(c, numberOfClaps), executor));
+        }
+
+        int[][] channelClaps = new int[numberOfChannels][];
+        for (int channel = 0; channel < numberOfChannels; channel++) {
+            channelClaps[channel] = futures.get(channel).join();
+        }
+        int[] claps = fuse(channelClaps, fusionWindow);
+
+        return StreamingACDRClapDetect.resultFor(new LowestJitter(StreamingACDRClapDetect.MAX_CANDIDATES), claps, claps.length,
+                numberOfClaps, parameters.getPositionAdvance());
+    }
+
+    /**
+     * Feeds one channel to its own detector, de-interleaving a chunk at a time into a reused array.
+     */
+    private int[] detectChannel(int channel, int numberOfClaps) {
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(parameters, numberOfClaps);
+        detector.setStopWhenConfirmed(false);
+
+        short[] chunk = new short[CHUNK_FRAMES];
+        ShortBuffer chunkBuffer = ShortBuffer.wrap(chunk);
+        int frames = samples.limit() / numberOfChannels;
+        for (int start = 0; start < frames; start += CHUNK_FRAMES) {
+            int count = Math.min(CHUNK_FRAMES, frames - start);
+            int index = start * numberOfChannels + channel;
+            for (int k = 0; k < count; k++, index += numberOfChannels) {
+                chunk[k] = samples.get(index);
+            }
+            chunkBuffer.clear().limit(count);
+            if (!detector.samplesDecoded(chunkBuffer)) {
+                break;
+            }
+        }
+        return detector.getClapPositions();
+    }
+
+    /**
+     * Merges the channels' claps into one ordered list, keeping the earliest of any claps within the fusion window.
+     * @param fusionWindow the fusion window, in samples
+     */
+    static int[] fuse(int[][] channelClaps, int fusionWindow) {
+        int total = 0;
+        for (int[] claps : channelClaps) {
+            total += claps.length;
+        }
+        int[] all = new int[total];
+        int offset = 0;
+        for (int[] claps : channelClaps) {
+            System.arraycopy(claps, 0, all, offset, claps.length);
+            offset += claps.length;
+        }
+        Arrays.sort(all);
+
+        int count = 0;
+        for (int i = 0; i < total; i++) {
+            if (count == 0 || all[i] - all[count - 1] > fusionWindow) {
+                all[count++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, count);
+    }
+
+    /**
+     * Averages the channels of an interleaved recording into one.
+     */
+    public static ShortBuffer downmix(ShortBuffer samples, int numberOfChannels) {
+        int frames = samples.limit() / numberOfChannels;
+        short[] mono = new short[frames];
+        int index = 0;
+        for (int i = 0; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < numberOfChannels; c++) {
+                sum += samples.get(index++);
+            }
+            mono[i] = (short) (sum / numberOfChannels);
+        }
+        return ShortBuffer.wrap(mono);
+    }
+
+    public int getNumberOfChannels() {
+        return numberOfChannels;
+    }
+}
@@ -0,0 +1,267 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds the exact onset of a clap found at the analysis rate, by decoding a short window around it at the input's
+ * own sample rate. Only the window is decoded, so it costs a fraction of a second however long the input is.
+ */
+public class OnsetRefiner {
+
+    /** Rate assumed when the input's audio stream doesn't report one. */
+    static final int DEFAULT_SAMPLE_RATE = 48000;
+
+    private final AudioResampler resampler;
+    private final AnalysisContext context;
+    private int windowMillis = 250;
+    private int searchMillis = 40;
+    private int envelopeMicros = 500;
+    private double onsetLevel = 0.2;
+    private double minPeakToFloor = 4;
+
+    public OnsetRefiner(AudioResampler resampler) {
+        this(resampler, AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the detections to refine, which refined positions are reported at too
+     */
+    public OnsetRefiner(AudioResampler resampler, AnalysisContext context) {
+        this.resampler = resampler;
+        this.context = context;
+    }
+
+    /**
+     * Result of refining a clap.
+     */
+    public static class Onset {
+        private final int sampleRate;
+        private final long onsetSample;
+        private final double onsetSeconds;
+        private final double frameRate;
+        private final double peakToFloor;
+        private final AnalysisContext context;
+
+        Onset(int sampleRate, long onsetSample, double onsetSeconds, double frameRate, double peakToFloor, AnalysisContext context) {
+            this.sampleRate = sampleRate;
+            this.onsetSample = onsetSample;
+            this.onsetSeconds = onsetSeconds;
+            this.frameRate = frameRate;
+            this.peakToFloor = peakToFloor;
+            this.context = context;
+        }
+
+        /**
+         * @return the rate the onset was found at, which is the input's own sample rate
+         */
+        public int getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * @return the first sample of the clap, at {@link #getSampleRate()}
+         */
+        public long getOnsetSample() {
+            return onsetSample;
+        }
+
+        /**
+         * @return the onset in seconds, interpolated between samples
+         */
+        public double getOnsetSeconds() {
+            return onsetSeconds;
+        }
+
+        /**
+         * @return the frame rate of the input's video, or -1 if it has none
+         */
+        public double getFrameRate() {
+            return frameRate;
+        }
+
+        /**
+         * @return the onset in video frames, with the fraction of a frame, or NaN if the input has no video
+         */
+        public double getOnsetFrame() {
+            return frameRate > 0 ? onsetSeconds * frameRate : Double.NaN;
+        }
+
+        /**
+         * @return the cut position, {@link ACDRClapDetect#POSITION_ADVANCE_MILLIS} after the onset, in samples at the
+         * analysis rate
+         */
+        public int getPosition() {
+            return context.samples(onsetSeconds * 1000 + ACDRClapDetect.POSITION_ADVANCE_MILLIS);
+        }
+
+        /**
+         * @return the video frame the cut position falls in, or -1 if the input has no video
+         */
+        public long getPositionFrame() {
+            return frameRate > 0 ? (long) Math.floor(context.seconds(getPosition()) * frameRate) : -1;
+        }
+
+        /**
+         * @return how far the clap's envelope peak rose above the background, as a ratio of magnitudes
+         */
+        public double getPeakToFloor() {
+            return peakToFloor;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("onset %.4fs (sample %d at %d Hz, frame %.2f)", onsetSeconds, onsetSample, sampleRate, getOnsetFrame());
+        }
+    }
+
+    /**
+     * Refines the clap of a detection.
+     * @param clapIndex the clap as reported by {@link ClapDetectResult#getClapIndex()}, in samples at the analysis rate
+     * @return the onset, or {@code null} if the window holds no clear transient, in which case the coarse position
+     * should be kept
+     */
+    public Onset refine(String inputPath, int clapIndex) {
+        long started = System.nanoTime();
+        MediaInfo info = resampler.getMediaProbe().probe(inputPath);
+        MediaInfo.StreamInfo audio = info.getAudioStream();
+        int sampleRate = audio != null && audio.getSampleRate() > 0 ? audio.getSampleRate() : DEFAULT_SAMPLE_RATE;
+
+        long clapMillis = context.millis(clapIndex);
+        long startMillis = Math.max(0, clapMillis - windowMillis);
+        long durationMillis = clapMillis + windowMillis - startMillis;
+        ShortBuffer samples = resampler.resampleRange(inputPath, 1, sampleRate, startMillis, durationMillis).asShortBuffer();
+        long windowStart = startMillis * sampleRate / 1000;
+        int center = (int) ((long) clapIndex * sampleRate / context.getSampleRate() - windowStart);
+
+        Onset onset = findOnset(samples, sampleRate, windowStart, center, info.getFrameRate());
+        System.out.printf("Refined clap at %.4fs in %s: %s, %d ms\n", context.seconds(clapIndex),
+                inputPath, onset != null ? onset : "no clear onset", (System.nanoTime() - started) / 1_000_000);
+        return onset;
+    }
+
+    /**
+     * Finds the onset of the loudest transient near {@code center} in a decoded window.
+     * @param windowStart the position of the window's first sample in the input
+     * @param center where coarse detection put the clap, relative to the window
+     */
+    Onset findOnset(ShortBuffer samples, int sampleRate, long windowStart, int center, double frameRate) {
+        int length = samples.remaining();
+        int search = searchMillis * sampleRate / 1000;
+        int searchFrom = Math.max(0, center - search);
+        int searchTo = Math.min(length, center + search);
+        if (searchFrom >= searchTo) {
+            return null;
+        }
+
+        // Trailing mean magnitude over a fraction of a millisecond, which keeps the attack sharp
+        int envelopeSamples = Math.max(1, (int) ((long) envelopeMicros * sampleRate / 1_000_000));
+        short[] window = new short[length];
+        samples.get(samples.position(), window);
+        int[] magnitudes = new int[length];
+        SampleKernels.absEnvelope(window, 0, length, magnitudes, 0);
+        int[] envelope = new int[length];
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += magnitudes[i];
+            if (i >= envelopeSamples) {
+                sum -= magnitudes[i - envelopeSamples];
+            }
+            envelope[i] = (int) (sum / Math.min(i + 1, envelopeSamples));
+        }
+
+        int peakIndex = searchFrom;
+        for (int i = searchFrom; i < searchTo; i++) {
+            if (envelope[i] > envelope[peakIndex]) {
+                peakIndex = i;
+            }
+        }
+
+        // The median before the search area is the background, even with the tail of an earlier clap in it
+        int floorTo = Math.max(envelopeSamples, searchFrom);
+        int[] background = Arrays.copyOfRange(envelope, 0, Math.min(length, floorTo));
+        Arrays.sort(background);
+        int floor = background.length > 0 ? background[background.length / 2] : 0;
+        int peak = envelope[peakIndex];
+        double peakToFloor = (double) peak / Math.max(1, floor);
+        if (peakToFloor < minPeakToFloor) {
+            return null;
+        }
+
+        // Walk back from the peak to where the envelope first rose above the onset level
+        int level = floor + (int) ((peak - floor) * onsetLevel);
+        int rise = peakIndex;
+        while (rise > 0 && envelope[rise - 1] > level) {
+            rise--;
+        }
+        // The envelope trails the samples, so the first sample over the level is within one envelope length before
+        int from = Math.max(1, rise - envelopeSamples + 1);
+        int onset = rise;
+        for (int i = from; i <= rise; i++) {
+            if (magnitudes[i] > level) {
+                onset = i;
+                break;
+            }
+        }
+        double fraction = 0;
+        if (onset > 0 && magnitudes[onset - 1] <= level && magnitudes[onset] > level) {
+            // Where the level was crossed between the last quiet sample and the first loud one
+            fraction = (double) (level - magnitudes[onset - 1]) / (magnitudes[onset] - magnitudes[onset - 1]) - 1;
+        }
+
+        long onsetSample = windowStart + onset;
+        return new Onset(sampleRate, onsetSample, (onsetSample + fraction) / sampleRate, frameRate, peakToFloor, context);
+    }
+
+    public int getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @param windowMillis how much audio to decode on each side of the coarse position
+     */
+    public void setWindowMillis(int windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public int getSearchMillis() {
+        return searchMillis;
+    }
+
+    /**
+     * @param searchMillis how far from the coarse position the clap's peak may be
+     */
+    public void setSearchMillis(int searchMillis) {
+        this.searchMillis = searchMillis;
+    }
+
+    public int getEnvelopeMicros() {
+        return envelopeMicros;
+    }
+
+    public void setEnvelopeMicros(int envelopeMicros) {
+        this.envelopeMicros = envelopeMicros;
+    }
+
+    public double getOnsetLevel() {
+        return onsetLevel;
+    }
+
+    /**
+     * @param onsetLevel the fraction of the way from the background to the peak at which the clap starts
+     */
+    public void setOnsetLevel(double onsetLevel) {
+        this.onsetLevel = onsetLevel;
+    }
+
+    public double getMinPeakToFloor() {
+        return minPeakToFloor;
+    }
+
+    /**
+     * @param minPeakToFloor how far the peak must rise above the background for the onset to be trusted
+     */
+    public void setMinPeakToFloor(double minPeakToFloor) {
+        this.minPeakToFloor = minPeakToFloor;
+    }
+}
@@ -0,0 +1,219 @@
+package bandautocut.clap.detect;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches for ACDR parameters that find the claps in a corpus of tracks with known clap positions.
+ * Parameter sets are spread over a fork/join pool, and every worker reads the same shared tracks.
+ */
+public class ParameterTuner {
+
+    private final List<TuningTrack> tracks;
+    private final AnalysisContext context;
+    private int numberOfClaps = 4;
+    private double toleranceMillis = 100;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public ParameterTuner(List<TuningTrack> tracks) {
+        this(tracks, AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate the tracks were decoded at
+     */
+    public ParameterTuner(List<TuningTrack> tracks, AnalysisContext context) {
+        this.tracks = tracks;
+        this.context = context;
+    }
+
+    /**
+     * The values tried for each parameter, with durations in milliseconds. A grid search tries every combination, a
+     * random search picks values between the lowest and highest of each.
+     */
+    public static class Space {
+        private int[] thresholdConstants = {8000, 9500, (int) (Short.MAX_VALUE / 2.9), 13000, 15000};
+        private int[] decisionThresholds = {2_500_000, 5_000_000, 10_000_000, 20_000_000, 40_000_000};
+        private double[] shortTermDurations = {0.375, 0.625, 1, 1.5};
+        private double[] longTermDurations = {5_000, 10_000, 20_000, 30_000};
+        private double[] maxAllowedClapDurations = {0.25, 0.375, 0.5, 0.75};
+        private double[] clapAdvances = {125, 1000 / 6.0, 250};
+
+        public List<ACDRClapDetect.Parameters> grid() {
+            List<ACDRClapDetect.Parameters> grid = new ArrayList<>();
+            for (int thresholdConstant : thresholdConstants) {
+                for (int decisionThreshold : decisionThresholds) {
+                    for (double shortTermDuration : shortTermDurations) {
+                        for (double longTermDuration : longTermDurations) {
+                            for (double maxAllowedClapDuration : maxAllowedClapDurations) {
+                                for (double clapAdvance : clapAdvances) {
+                                    grid.add(parameters(thresholdConstant, decisionThreshold, shortTermDuration,
+                                            longTermDuration, maxAllowedClapDuration, clapAdvance));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return grid;
+        }
+
+        public List<ACDRClapDetect.Parameters> random(int count, long seed) {
+            Random random = new Random(seed);
+            List<ACDRClapDetect.Parameters> sets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sets.add(parameters(
+                        pick(random, thresholdConstants),
+                        pick(random, decisionThresholds),
+                        pick(random, shortTermDurations),
+                        pick(random, longTermDurations),
+                        pick(random, maxAllowedClapDurations),
+                        pick(random, clapAdvances)));
+            }
+            return sets;
+        }
+
+        private static int pick(Random random, int[] values) {
+            int min = Arrays.stream(values).min().orElseThrow();
+            int max = Arrays.stream(values).max().orElseThrow();
+            return min + (int) (random.nextDouble() * ((long) max - min + 1));
+        }
+
+        private static double pick(Random random, double[] values) {
+            double min = Arrays.stream(values).min().orElseThrow();
+            double max = Arrays.stream(values).max().orElseThrow();
+            return min + random.nextDouble() * (max - min);
+        }
+
+        private static ACDRClapDetect.Parameters parameters(int thresholdConstant, int decisionThreshold, double shortTermDuration,
+                double longTermDuration, double maxAllowedClapDuration, double clapAdvance) {
+            ACDRClapDetect.Parameters parameters = new ACDRClapDetect.Parameters();
+            parameters.setThresholdConstant(thresholdConstant);
+            parameters.setDecisionThreshold(decisionThreshold);
+            parameters.setShortTermMillis(shortTermDuration);
+            parameters.setLongTermMillis(longTermDuration);
+            parameters.setMaxClapMillis(maxAllowedClapDuration);
+            parameters.setClapAdvanceMillis(clapAdvance);
+            return parameters;
+        }
+
+        public void setThresholdConstants(int... thresholdConstants) {
+            this.thresholdConstants = thresholdConstants;
+        }
+
+        public void setDecisionThresholds(int... decisionThresholds) {
+            this.decisionThresholds = decisionThresholds;
+        }
+
+        public void setShortTermDurations(double... shortTermDurations) {
+            this.shortTermDurations = shortTermDurations;
+        }
+
+        public void setLongTermDurations(double... longTermDurations) {
+            this.longTermDurations = longTermDurations;
+        }
+
+        public void setMaxAllowedClapDurations(double... maxAllowedClapDurations) {
+            this.maxAllowedClapDurations = maxAllowedClapDurations;
+        }
+
+        public void setClapAdvances(double... clapAdvances) {
+            this.clapAdvances = clapAdvances;
+        }
+    }
+
+    /**
+     * Runs every parameter set over every track.
+     * @return the results, best first
+     */
+    public List<TuningResult> evaluate(List<ACDRClapDetect.Parameters> candidates) {
+        TuningResult[] results = new TuningResult[candidates.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new EvaluateTask(candidates, results, 0, results.length));
+        } finally {
+            pool.shutdown();
+        }
+
+        List<TuningResult> ranked = new ArrayList<>(Arrays.asList(results));
+        ranked.sort(TuningResult::compareTo);
+        return ranked;
+    }
+
+    private TuningResult evaluate(ACDRClapDetect.Parameters parameters) {
+        TuningResult result = new TuningResult(parameters, tracks.size(), context);
+        ACDRClapDetect.SampleParameters sampleParameters = parameters.inSamples(context);
+        int tolerance = context.samples(toleranceMillis);
+        long start = System.nanoTime();
+        for (TuningTrack track : tracks) {
+            StreamingACDRClapDetect detector = StreamingACDRClapDetect.sweep(track, sampleParameters, numberOfClaps);
+            result.add(detector.getClapIndex(), track.getExpectedPosition(), detector.getSamplesProcessed(), tolerance);
+        }
+        result.setElapsedNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF_SIZE = 4;
+
+        private final List<ACDRClapDetect.Parameters> candidates;
+        private final TuningResult[] results;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(List<ACDRClapDetect.Parameters> candidates, TuningResult[] results, int from, int to) {
+            this.candidates = candidates;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    results[i] = evaluate(candidates.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(candidates, results, from, middle), new EvaluateTask(candidates, results, middle, to));
+        }
+    }
+
+    public int getNumberOfClaps() {
+        return numberOfClaps;
+    }
+
+    public void setNumberOfClaps(int numberOfClaps) {
+        this.numberOfClaps = numberOfClaps;
+    }
+
+    /**
+     * @return how far a detection can be from the expected clap and still count
+     */
+    public double getToleranceMillis() {
+        return toleranceMillis;
+    }
+
+    public void setToleranceMillis(double toleranceMillis) {
+        this.toleranceMillis = toleranceMillis;
+    }
+
+    public AnalysisContext getContext() {
+        return context;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+}
@@ -0,0 +1,159 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Off-heap sink for decoded PCM data.
+ * The buffer is preallocated from the expected size of the decoded audio, so normally no copying happens;
+ * if the estimate was too small, the buffer grows and the copied bytes are counted.
+ */
+public class PcmStore implements SeekableByteChannel {
+
+    private static final int MINIMUM_CAPACITY = 1 << 20;
+    private static final int MAXIMUM_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private ByteBuffer buffer;
+    private int size;
+    private int position;
+    private long bytesCopied;
+    private long peakBytes;
+    private boolean open = true;
+
+    /**
+     * @param expectedBytes the expected size of the decoded audio, or a negative value if unknown
+     */
+    public PcmStore(long expectedBytes) {
+        long capacity = expectedBytes < 0 ? MINIMUM_CAPACITY : expectedBytes + expectedBytes / 64 + 65536;
+        buffer = ByteBuffer.allocateDirect((int) Math.max(MINIMUM_CAPACITY, Math.min(capacity, MAXIMUM_CAPACITY)));
+        peakBytes = buffer.capacity();
+    }
+
+    /**
+     * @return the expected number of bytes of s16le audio for the given duration and format
+     */
+    public static long expectedBytes(double durationSeconds, int numberOfChannels, int sampleRate) {
+        if (durationSeconds <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(durationSeconds * sampleRate) * numberOfChannels * 2;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int length = src.remaining();
+        ensureCapacity((long) position + length);
+        buffer.put(position, src, src.position(), length);
+        src.position(src.limit());
+        position += length;
+        size = Math.max(size, position);
+        return length;
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > MAXIMUM_CAPACITY) {
+            throw new IOException("Decoded audio is larger than " + MAXIMUM_CAPACITY + " bytes");
+        }
+
+        int newCapacity = (int) Math.min(MAXIMUM_CAPACITY, Math.max(required, buffer.capacity() + (long) buffer.capacity() / 2));
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity);
+        newBuffer.put(0, buffer, 0, size);
+        bytesCopied += size;
+        peakBytes = Math.max(peakBytes, (long) buffer.capacity() + newCapacity);
+        buffer = newBuffer;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int length = Math.min(dst.remaining(), size - position);
+        dst.put(dst.position(), buffer, position, length);
+        dst.position(dst.position() + length);
+        position += length;
+        return length;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0 || newPosition > MAXIMUM_CAPACITY) {
+            throw new IOException("Position out of range: " + newPosition);
+        }
+        position = (int) newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) throws IOException {
+        ensureOpen();
+        if (newSize < size) {
+            size = (int) newSize;
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    /**
+     * @return a little endian view of the stored audio, sharing the store's memory
+     */
+    public ByteBuffer toByteBuffer() {
+        return buffer.slice(0, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the number of bytes copied because the buffer had to grow
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * @return the largest amount of memory held by the store at any time, in bytes
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @return the capacity of the current buffer, in bytes
+     */
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+}
@@ -0,0 +1,245 @@
+package bandautocut.clap.detect;
+
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays a window of the sample sources around a position, mixed together, on a line that stays open between plays.
+ * <p>
+ * Sources are read a block at a time as the line needs them, so moving a source's offset while it plays, as dragging
+ * in the {@link SampleViewer} does, is heard straight away.
+ */
+public class PlaybackEngine {
+
+    private static final int BLOCK_SAMPLES = 256;
+    /** Mixed levels up to here pass unchanged, and louder ones are bent smoothly towards full scale. */
+    private static final float SOFT_CLIP_KNEE = 0.75f * Short.MAX_VALUE;
+
+    private final AudioFormat format;
+    private final Object lock = new Object();
+    private final short[] block = new short[BLOCK_SAMPLES];
+    private final int[] mix = new int[BLOCK_SAMPLES];
+    private final byte[] lineBytes = new byte[BLOCK_SAMPLES * 2];
+
+    private SourceDataLine line;
+    private Thread thread;
+
+    private volatile SampleSource[] sources = new SampleSource[0];
+    private volatile int anchor;
+    private volatile boolean loop;
+    private volatile Runnable stoppedListener;
+
+    // Guarded by lock
+    private boolean playing;
+    private int leadSamples;
+    private int tailSamples;
+    private int relativePosition;
+    /** Counts the calls to {@link #play}, so a block that was written across a restart isn't counted as played. */
+    private int generation;
+
+    /**
+     * @param context the rate of the sources to play
+     */
+    public PlaybackEngine(AnalysisContext context) {
+        format = context.audioFormat(false);
+    }
+
+    /**
+     * Starts playing from {@code leadSamples} before the anchor to {@code tailSamples} after it, or restarts if it's
+     * already playing.
+     * @throws LineUnavailableException if there's no audio line to play on
+     */
+    public void play(int leadSamples, int tailSamples) throws LineUnavailableException {
+        synchronized (lock) {
+            openLine();
+            this.leadSamples = leadSamples;
+            this.tailSamples = tailSamples;
+            relativePosition = -leadSamples;
+            generation++;
+            playing = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops playing, dropping whatever the line still has buffered.
+     */
+    public void stop() {
+        synchronized (lock) {
+            if (!playing) {
+                return;
+            }
+            playing = false;
+            if (line != null) {
+                line.flush();
+            }
+        }
+        fireStopped();
+    }
+
+    public boolean isPlaying() {
+        synchronized (lock) {
+            return playing;
+        }
+    }
+
+    /**
+     * Stops playing and releases the line.
+     */
+    public void close() {
+        stop();
+        synchronized (lock) {
+            if (thread != null) {
+                thread.interrupt();
+                thread = null;
+            }
+            if (line != null) {
+                line.close();
+                line = null;
+            }
+        }
+    }
+
+    private void openLine() throws LineUnavailableException {
+        if (line == null) {
+            DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+            line = (SourceDataLine) AudioSystem.getLine(info);
+            line.open(format, lineBytes.length * 4);
+            line.start();
+        }
+        if (thread == null) {
+            thread = new Thread(this::run, "playback");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                int position;
+                int length;
+                int blockGeneration;
+                SourceDataLine playLine;
+                synchronized (lock) {
+                    while (!playing) {
+                        lock.wait();
+                    }
+                    position = anchor + relativePosition;
+                    length = Math.min(BLOCK_SAMPLES, tailSamples - relativePosition);
+                    blockGeneration = generation;
+                    playLine = line;
+                }
+
+                if (length > 0) {
+                    mixBlock(position, length);
+                    playLine.write(lineBytes, 0, length * 2);
+                }
+
+                boolean finished = false;
+                synchronized (lock) {
+                    if (playing && generation == blockGeneration) {
+                        relativePosition += Math.max(0, length);
+                        if (relativePosition >= tailSamples) {
+                            if (loop) {
+                                relativePosition = -leadSamples;
+                            } else {
+                                playing = false;
+                                finished = true;
+                            }
+                        }
+                    }
+                }
+                if (finished) {
+                    playLine.drain();
+                    fireStopped();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sums a block of every source and writes it to the line bytes, soft clipping anything that would overflow.
+     * Each source's gain is applied in the sum, so samples it takes past full scale are soft clipped too.
+     */
+    private void mixBlock(int position, int length) {
+        Arrays.fill(mix, 0, length, 0);
+        for (SampleSource source : sources) {
+            source.readUnscaled(position, block, 0, length);
+            float gain = source.getGain();
+            if (gain == 1) {
+                for (int i = 0; i < length; i++) {
+                    mix[i] += block[i];
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    mix[i] += (int) (block[i] * gain);
+                }
+            }
+        }
+        for (int i = 0, b = 0; i < length; i++, b += 2) {
+            int sample = softClip(mix[i]);
+            lineBytes[b] = (byte) sample;
+            lineBytes[b + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    static int softClip(int sample) {
+        int magnitude = Math.abs(sample);
+        if (magnitude <= SOFT_CLIP_KNEE) {
+            return sample;
+        }
+        float headroom = Short.MAX_VALUE - SOFT_CLIP_KNEE;
+        float bent = SOFT_CLIP_KNEE + headroom * (float) Math.tanh((magnitude - SOFT_CLIP_KNEE) / headroom);
+        return sample < 0 ? -(int) bent : (int) bent;
+    }
+
+    private void fireStopped() {
+        Runnable listener = stoppedListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @param sources the sources to mix, which may be changed while playing
+     */
+    public void setSources(SampleSource... sources) {
+        this.sources = sources.clone();
+    }
+
+    public int getAnchor() {
+        return anchor;
+    }
+
+    /**
+     * @param anchor the position, in source coordinates, that the played window is around
+     */
+    public void setAnchor(int anchor) {
+        this.anchor = anchor;
+    }
+
+    public boolean isLoop() {
+        return loop;
+    }
+
+    /**
+     * @param loop whether to start the window over when it ends, until stopped
+     */
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * @param stoppedListener called when playback ends or is stopped, on whichever thread that happened
+     */
+    public void setStoppedListener(Runnable stoppedListener) {
+        this.stoppedListener = stoppedListener;
+    }
+}
@@ -0,0 +1,171 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.function.DoubleConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Decodes the start of an input in growing windows until a check on the audio decoded so far passes, so a clap
+ * search near the start of a long recording only decodes a few minutes of it.
+ * <p>
+ * Each window continues where the last one ended and is as long as everything decoded before it, so the decoded
+ * audio doubles every time and nothing is decoded twice.
+ */
+public class ProgressiveDecode {
+
+    public static final long DEFAULT_INITIAL_MILLIS = 2 * 60 * 1000;
+
+    private final AudioResampler resampler;
+    private final String inputPath;
+    private final int numberOfChannels;
+    private final int sampleRate;
+
+    private long initialMillis = DEFAULT_INITIAL_MILLIS;
+    private long maxMillis = Long.MAX_VALUE;
+    private DoubleConsumer progressListener;
+    private SampleStreamListener listener;
+
+    private volatile boolean cancelled;
+    private volatile DecodeJob job;
+    private long decodedMillis;
+    private boolean satisfied;
+    private boolean complete;
+
+    public ProgressiveDecode(AudioResampler resampler, String inputPath, int numberOfChannels, int sampleRate) {
+        this.resampler = resampler;
+        this.inputPath = inputPath;
+        this.numberOfChannels = numberOfChannels;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Decodes windows until {@code done} accepts the samples decoded so far, the end of the input is reached, or
+     * the maximum length has been decoded.
+     * @param done checked on all samples decoded so far after each window
+     * @return the decoded s16le audio from the start of the input, in a direct little endian buffer
+     * @throws CancellationException if the decode was cancelled
+     */
+    public ByteBuffer execute(Predicate<ShortBuffer> done) {
+        double durationSeconds = resampler.getMediaProbe().probeDurationSeconds(inputPath);
+        long durationMillis = durationSeconds > 0 ? (long) (durationSeconds * 1000) : Long.MAX_VALUE;
+        long totalMillis = Math.min(durationMillis, maxMillis);
+        long frameBytes = 2L * numberOfChannels;
+
+        PcmStore store = new PcmStore(PcmStore.expectedBytes(Math.min(totalMillis, initialMillis) / 1000.0, numberOfChannels, sampleRate));
+        decodedMillis = 0;
+        satisfied = false;
+        complete = false;
+        long windowMillis = initialMillis;
+        while (true) {
+            if (cancelled) {
+                throw new CancellationException("Decoding " + inputPath + " was cancelled");
+            }
+            long length = Math.min(windowMillis, totalMillis - decodedMillis);
+            long start = decodedMillis;
+            DecodeJob window = resampler.createJob(inputPath, numberOfChannels, sampleRate).setRange(start, length)
+                    .setListener(listener);
+            if (progressListener != null && totalMillis != Long.MAX_VALUE) {
+                window.setProgressListener(p -> progressListener.accept(Math.min(1, (start + p * length) / (double) totalMillis)));
+            }
+            job = window;
+            if (cancelled) {
+                window.cancel();
+            }
+            ByteBuffer pcm = window.execute();
+            long expectedBytes = length * sampleRate / 1000 * frameBytes;
+            try {
+                store.write(pcm.duplicate());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            decodedMillis += length;
+
+            ShortBuffer samples = store.toByteBuffer().asShortBuffer();
+            if (done.test(samples)) {
+                satisfied = true;
+                break;
+            }
+            // A short window means ffmpeg ran out of input, in case the duration couldn't be probed
+            boolean ranOut = pcm.remaining() < expectedBytes - sampleRate / 100 * frameBytes;
+            if (ranOut || decodedMillis >= totalMillis) {
+                complete = ranOut || decodedMillis >= durationMillis;
+                break;
+            }
+            windowMillis = decodedMillis;
+        }
+        job = null;
+        return store.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Stops the decode. {@link #execute(Predicate)} then throws a {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+        DecodeJob running = job;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    /**
+     * @return how much of the input has been decoded, in milliseconds
+     */
+    public long getDecodedMillis() {
+        return decodedMillis;
+    }
+
+    /**
+     * @return whether the last decode stopped because the check passed
+     */
+    public boolean isSatisfied() {
+        return satisfied;
+    }
+
+    /**
+     * @return whether the last decode reached the end of the input
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public long getInitialMillis() {
+        return initialMillis;
+    }
+
+    public void setInitialMillis(long initialMillis) {
+        this.initialMillis = initialMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = maxMillis;
+    }
+
+    public SampleStreamListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener receives the samples of each window as they are decoded, which continue where the last window's
+     * ended; it should not ask to stop, since that would end the window early
+     */
+    public void setListener(SampleStreamListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param progressListener receives the fraction of the input decoded so far, if its duration is known
+     */
+    public void setProgressListener(DoubleConsumer progressListener) {
+        this.progressListener = progressListener;
+    }
+}
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -15,46 +14,77 @@ import javax.sound.sampled.SourceDataLine;
  * The main class.
  */
 public class RawMain {
+
+    /** Raw files hold mono 16-bit samples at this rate. */
+    static final AnalysisContext RAW_CONTEXT = new AnalysisContext(AnalysisContext.DEFAULT_SAMPLE_RATE);
     
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
             exitUsage();
         }
         
-        byte[] buf = null;
-        try {
-            buf = Files.readAllBytes(Paths.get(args[0]));
-        } catch (IOException ex) {
-            System.err.println("I/O error: " + ex.getMessage());
-            System.exit(2);
+        // Run the detector while the samples are read, so only the mapped file holds the audio
+        AnalysisContext context = isRawFile(args[0]) ? RAW_CONTEXT : AnalysisContext.defaultContext();
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(new ACDRClapDetect.Parameters(), 4, context);
+        detector.setStopWhenConfirmed(false);
+        SampleSource source = null;
+        if (isRawFile(args[0])) {
+            try {
+                MappedPcmFile pcmFile = MappedPcmFile.open(Paths.get(args[0]), ByteOrder.nativeOrder());
+                System.out.println("Read " + pcmFile.length() + " samples");
+                if (pcmFile.length() > StreamingACDRClapDetect.MAX_SAMPLES) {
+                    System.err.printf("%s holds %d samples, but at most %d (%.1f hours at %s) can be searched for claps\n",
+                            args[0], pcmFile.length(), StreamingACDRClapDetect.MAX_SAMPLES,
+                            RAW_CONTEXT.seconds(StreamingACDRClapDetect.MAX_SAMPLES) / 3600, RAW_CONTEXT);
+                    System.exit(65);
+                }
+                System.out.println("Detecting claps...");
+                pcmFile.stream(detector);
+                source = pcmFile;
+            } catch (IOException ex) {
+                System.err.println("I/O error: " + ex.getMessage());
+                System.exit(2);
+            }
+        } else {
+            // Media files are decoded through the shared cache
+            System.out.println("Decoding and detecting claps...");
+            ShortBuffer samples = new AudioResampler().resampleAudio(args[0], 1, context.getSampleRate(), detector).asShortBuffer();
+            source = new ShortBufferSampleSource(args[0], samples, 1);
         }
-        ShortBuffer samples = ByteBuffer.wrap(buf)
-                .order(ByteOrder.nativeOrder())
-                .asShortBuffer();
-        
-        System.out.println("Read " + samples.limit() + " samples");
-        System.out.println("Detecting claps...");
-        ClapDetectResult clapDetectResult = new ACDRClapDetect(samples).clapDetect(4);
+
+        ClapDetectResult clapDetectResult = detector.getResult();
         if (clapDetectResult.getBestPosition() == -1) {
             System.out.println("No clap sequence found");
             return;
         }
 
-        System.out.printf("Best clap position: %d (%.2f seconds)\n", clapDetectResult.getBestPosition(), clapDetectResult.getBestPosition() / 8000f);
+        System.out.printf("Best clap position: %d (%.2f seconds)\n", clapDetectResult.getBestPosition(), context.seconds(clapDetectResult.getBestPosition()));
         System.out.flush();
         
-        AudioFormat audioFormat = new AudioFormat(8000, 16, 1, true, samples.order() == ByteOrder.BIG_ENDIAN);
+        AudioFormat audioFormat = context.audioFormat(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, audioFormat);
         try (SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info)) {
             line.open(audioFormat, 4096);
             line.start();
-            for (int i = Math.max(0, clapDetectResult.getBestPosition() - 32000); i < clapDetectResult.getBestPosition(); i += 2048) {
-                line.write(buf, i * 2, 4096);
+            byte[] lineBuf = new byte[4096];
+            short[] block = new short[2048];
+            ShortBuffer lineSamples = ByteBuffer.wrap(lineBuf).order(ByteOrder.nativeOrder()).asShortBuffer();
+            // Four seconds before the claps
+            for (int i = Math.max(0, clapDetectResult.getBestPosition() - context.samplesForSeconds(4)); i < clapDetectResult.getBestPosition(); i += 2048) {
+                source.read(i, block, 0, block.length);
+                lineSamples.clear();
+                lineSamples.put(block);
+                line.write(lineBuf, 0, lineBuf.length);
             }
             line.drain();
             line.stop();
         }
     }
+
+    static boolean isRawFile(String path) {
+        String lowerCasePath = path.toLowerCase();
+        return lowerCasePath.endsWith(".raw") || lowerCasePath.endsWith(".pcm") || lowerCasePath.endsWith(".s16le");
+    }
     
     public static void exitUsage() {
         System.err.println("Usage: java -jar clap-detect.jar <filename>");
@@ -0,0 +1,160 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Loops over 16-bit samples that the detectors and loudness detection spend most of their time in.
+ * <p>
+ * When the JVM was started with {@code --add-modules jdk.incubator.vector}, the kernels run on the Vector API, a whole
+ * register of samples at a time. Otherwise, or with {@code -Dclapdetect.scalar=true}, they fall back to the plain
+ * loops in {@link Scalar}, which give the same results.
+ */
+public final class SampleKernels {
+
+    private static final boolean VECTORIZED = !Boolean.getBoolean("clapdetect.scalar")
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /** How many samples the buffer kernels copy out at a time. */
+    private static final int CHUNK_SAMPLES = 8192;
+
+    private static final ThreadLocal<short[]> CHUNKS = ThreadLocal.withInitial(() -> new short[CHUNK_SAMPLES]);
+
+    private SampleKernels() {
+    }
+
+    /**
+     * @return whether the kernels are running on the Vector API
+     */
+    public static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * @return the largest |sample| in {@code [from, to)}
+     */
+    public static int peak(short[] samples, int from, int to) {
+        return VECTORIZED ? VectorSampleKernels.peak(samples, from, to) : Scalar.peak(samples, from, to);
+    }
+
+    /**
+     * @return the largest |sample| in {@code [from, to)} of the buffer, by absolute index
+     */
+    public static int peak(ShortBuffer samples, int from, int to) {
+        if (samples.hasArray()) {
+            int offset = samples.arrayOffset();
+            return peak(samples.array(), offset + from, offset + to);
+        }
+        short[] chunk = CHUNKS.get();
+        int peak = 0;
+        for (int start = from; start < to; start += chunk.length) {
+            int length = Math.min(chunk.length, to - start);
+            samples.get(start, chunk, 0, length);
+            peak = Math.max(peak, peak(chunk, 0, length));
+        }
+        return peak;
+    }
+
+    /**
+     * @return the sum of |sample| over {@code [from, to)}
+     */
+    public static long absSum(short[] samples, int from, int to) {
+        return VECTORIZED ? VectorSampleKernels.absSum(samples, from, to) : Scalar.absSum(samples, from, to);
+    }
+
+    /**
+     * Writes |sample| for each sample in {@code [from, to)} to {@code dst}, starting at {@code dstOffset}.
+     */
+    public static void absEnvelope(short[] samples, int from, int to, int[] dst, int dstOffset) {
+        if (VECTORIZED) {
+            VectorSampleKernels.absEnvelope(samples, from, to, dst, dstOffset);
+        } else {
+            Scalar.absEnvelope(samples, from, to, dst, dstOffset);
+        }
+    }
+
+    /**
+     * Writes the sum of |sample| over each block of {@code blockSize} samples in {@code [from, to)} to {@code dst},
+     * the last block being whatever is left.
+     */
+    public static void blockSums(short[] samples, int from, int to, int blockSize, long[] dst, int dstOffset) {
+        for (int start = from, block = dstOffset; start < to; start += blockSize, block++) {
+            dst[block] = absSum(samples, start, Math.min(to, start + blockSize));
+        }
+    }
+
+    /**
+     * Writes the largest |sample| of each block of {@code blockSize} samples in {@code [from, to)} to {@code dst}, the
+     * last block being whatever is left.
+     */
+    public static void blockPeaks(short[] samples, int from, int to, int blockSize, int[] dst, int dstOffset) {
+        for (int start = from, block = dstOffset; start < to; start += blockSize, block++) {
+            dst[block] = peak(samples, start, Math.min(to, start + blockSize));
+        }
+    }
+
+    /**
+     * Writes running sums of |sample| at the start of each block of {@code blockSize} samples in {@code [from, to)}:
+     * {@code dst[dstOffset + k]} is {@code start} plus the sum of the samples before block {@code k}.
+     * @return {@code start} plus the sum over the whole range
+     */
+    public static long prefixSums(short[] samples, int from, int to, int blockSize, long start, long[] dst, int dstOffset) {
+        long sum = start;
+        for (int blockStart = from, block = dstOffset; blockStart < to; blockStart += blockSize, block++) {
+            dst[block] = sum;
+            sum += absSum(samples, blockStart, Math.min(to, blockStart + blockSize));
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the next sample that is louder than the one before it by more than {@code minRise}.
+     * @param from the first sample to look at, which must be after the start of the array
+     * @return the position of the sample, or -1 if there isn't one before {@code to}
+     */
+    public static int firstRise(short[] samples, int from, int to, int minRise) {
+        return VECTORIZED ? VectorSampleKernels.firstRise(samples, from, to, minRise) : Scalar.firstRise(samples, from, to, minRise);
+    }
+
+    /**
+     * The kernels one sample at a time.
+     */
+    public static final class Scalar {
+
+        private Scalar() {
+        }
+
+        public static int peak(short[] samples, int from, int to) {
+            int peak = 0;
+            for (int i = from; i < to; i++) {
+                peak = Math.max(peak, Math.abs(samples[i]));
+            }
+            return peak;
+        }
+
+        public static long absSum(short[] samples, int from, int to) {
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += Math.abs(samples[i]);
+            }
+            return sum;
+        }
+
+        public static void absEnvelope(short[] samples, int from, int to, int[] dst, int dstOffset) {
+            for (int i = from; i < to; i++) {
+                dst[dstOffset + i - from] = Math.abs(samples[i]);
+            }
+        }
+
+        public static int firstRise(short[] samples, int from, int to, int minRise) {
+            int previous = Math.abs(samples[from - 1]);
+            for (int i = from; i < to; i++) {
+                int magnitude = Math.abs(samples[i]);
+                if (magnitude - previous > minRise) {
+                    return i;
+                }
+                previous = magnitude;
+            }
+            return -1;
+        }
+    }
+}
@@ -4,10 +4,84 @@ package bandautocut.clap.detect;
  *
  */
 public interface SampleSource {
+
+    /** How many samples the default implementations read at a time. */
+    int READ_BLOCK_SAMPLES = 4096;
     
     int size();
     
     short sampleAt(int position);
     
     String name();
+
+    /**
+     * @return the number of samples, which unlike {@link #size()} may be more than {@link Integer#MAX_VALUE}
+     */
+    default long length() {
+        return size();
+    }
+
+    /**
+     * Copies {@code length} samples from {@code position} into {@code dst}, with silence outside of the source.
+     */
+    default void read(long position, short[] dst, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            long samplePosition = position + i;
+            dst[offset + i] = samplePosition < 0 || samplePosition > Integer.MAX_VALUE ? 0 : sampleAt((int) samplePosition);
+        }
+    }
+
+    /**
+     * @return the gain the reads apply to the stored samples, which they hold at full scale
+     */
+    default float getGain() {
+        return 1;
+    }
+
+    /**
+     * Copies samples like {@link #read(long, short[], int, int)}, but without {@link #getGain()}, for callers that
+     * apply the gain themselves with more headroom.
+     */
+    default void readUnscaled(long position, short[] dst, int offset, int length) {
+        read(position, dst, offset, length);
+    }
+
+    /**
+     * Copies {@code length} samples from {@code position} into {@code dst}, scaled to [-1, 1), with silence outside of
+     * the source.
+     */
+    default void read(long position, float[] dst, int offset, int length) {
+        short[] block = new short[Math.min(length, READ_BLOCK_SAMPLES)];
+        for (int done = 0; done < length; done += block.length) {
+            int count = Math.min(block.length, length - done);
+            read(position + done, block, 0, count);
+            for (int i = 0; i < count; i++) {
+                dst[offset + done + i] = block[i] * (1f / 32768);
+            }
+        }
+    }
+
+    /**
+     * Summarizes the samples in {@code [from, to)} for drawing.
+     * @param out receives the minimum, maximum and RMS of the range
+     */
+    default void summarize(int from, int to, int[] out) {
+        short[] block = new short[Math.max(0, Math.min(to - from, READ_BLOCK_SAMPLES))];
+        int lo = 0;
+        int hi = 0;
+        long squares = 0;
+        for (int start = from; start < to; start += block.length) {
+            int count = Math.min(block.length, to - start);
+            read(start, block, 0, count);
+            for (int i = 0; i < count; i++) {
+                int sample = block[i];
+                lo = start + i == from ? sample : Math.min(lo, sample);
+                hi = start + i == from ? sample : Math.max(hi, sample);
+                squares += sample * sample;
+            }
+        }
+        out[0] = lo;
+        out[1] = hi;
+        out[2] = to > from ? (int) Math.sqrt(squares / (double) (to - from)) : 0;
+    }
 }
@@ -0,0 +1,146 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Channel that receives s16le output from ffmpeg, stores it in a delegate channel and
+ * hands the decoded samples to a {@link SampleStreamListener} as they arrive.
+ */
+public class SampleStreamChannel implements SeekableByteChannel {
+
+    private final SeekableByteChannel delegate;
+    private final SampleStreamListener listener;
+    private final ShortBuffer carrySample = ShortBuffer.allocate(1);
+
+    private boolean hasCarryByte;
+    private byte carryByte;
+    private volatile boolean stopped;
+    private Runnable stopAction;
+    private boolean open = true;
+
+    public SampleStreamChannel(SeekableByteChannel delegate, SampleStreamListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (stopped) {
+            // The decoder is being shut down; drop whatever it still had buffered.
+            src.position(src.limit());
+            return length;
+        }
+
+        ByteBuffer bytes = src.duplicate();
+        delegate.write(src);
+
+        if (listener == null || length == 0) {
+            return length;
+        }
+
+        if (hasCarryByte) {
+            carrySample.clear();
+            carrySample.put((short) ((carryByte & 0xff) | (bytes.get() << 8)));
+            carrySample.flip();
+            hasCarryByte = false;
+            if (!listener.samplesDecoded(carrySample)) {
+                stop();
+                return length;
+            }
+        }
+
+        int evenLength = bytes.remaining() & ~1;
+        if (evenLength > 0) {
+            ShortBuffer samples = bytes.slice()
+                    .limit(evenLength)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asShortBuffer();
+            if (!listener.samplesDecoded(samples)) {
+                stop();
+                return length;
+            }
+        }
+
+        if (bytes.remaining() > evenLength) {
+            carryByte = bytes.get(bytes.position() + evenLength);
+            hasCarryByte = true;
+        }
+
+        return length;
+    }
+
+    private void stop() {
+        Runnable action;
+        synchronized (this) {
+            stopped = true;
+            action = stopAction;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Sets the action that stops the decoder once the listener has seen enough.
+     * If the listener already asked to stop, the action runs immediately.
+     */
+    public void setStopAction(Runnable stopAction) {
+        boolean runNow;
+        synchronized (this) {
+            this.stopAction = stopAction;
+            runNow = stopped;
+        }
+        if (runNow) {
+            stopAction.run();
+        }
+    }
+
+    /**
+     * @return whether the listener asked the decoder to stop before the end of the stream
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return delegate.read(dst);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return delegate.position();
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        delegate.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return delegate.size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        delegate.truncate(size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+    }
+}
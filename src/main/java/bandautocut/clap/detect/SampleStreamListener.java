@@ -0,0 +1,17 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Receives decoded samples as they arrive from the decoder.
+ */
+public interface SampleStreamListener {
+
+    /**
+     * Called with each block of decoded samples, in stream order.
+     * The buffer is only valid for the duration of the call.
+     * @param samples the newly decoded samples, from position to limit
+     * @return {@code true} to keep decoding, {@code false} to stop the decoder
+     */
+    boolean samplesDecoded(ShortBuffer samples);
+}
@@ -3,23 +3,32 @@ package bandautocut.clap.detect;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.SystemColor;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Consumer;
 import javax.swing.JPanel;
+import javax.swing.JViewport;
 import javax.swing.Scrollable;
+import javax.swing.SwingUtilities;
 
 /**
  *
  */
-public class SampleViewer extends JPanel implements Scrollable, MouseListener, MouseMotionListener {
+public class SampleViewer extends JPanel implements Scrollable, MouseListener, MouseMotionListener, MouseWheelListener {
+
+    private static final float MIN_ZOOM_FACTOR = 0.00001f;
+    private static final float MAX_ZOOM_FACTOR = 8f;
+    private static final float WHEEL_ZOOM_STEP = 1.25f;
     
     private final List<SampleSource> sources = new ArrayList<>(4);
     private final Dimension minimumSize = new Dimension(100, 80);
@@ -27,15 +36,16 @@ public class SampleViewer extends JPanel implements Scrollable, MouseListener, M
     private final List<Consumer<DragEvent>> dragListeners = new LinkedList<>();
 
     private float zoomFactor = 0.01f;
+    /** Reused between paints for the samples under the visible columns. */
+    private short[] visibleSamples = new short[0];
     
     private int dragStartX;
     private boolean dragging;
 
-    @Override
-    public void doLayout() {
-        super.doLayout();
+    public SampleViewer() {
         addMouseListener(this);
         addMouseMotionListener(this);
+        addMouseWheelListener(this);
     }
 
     @Override
@@ -61,29 +71,68 @@ public class SampleViewer extends JPanel implements Scrollable, MouseListener, M
             return;
         }
         int yh = height / this.sources.size();
-        int[][] xPoints = new int[this.sources.size()][];
-        int[][] yPoints = new int[this.sources.size()][];
+        if (zoomFactor >= 1) {
+            paintSamples(g, bounds, yh);
+        } else {
+            paintSummaries(g, bounds, yh);
+        }
+        
+        g.setColor(SystemColor.windowBorder);
+        for (int i = 1; i < this.sources.size(); i++) {
+            int y = bounds.y + yh * i;
+            g.drawLine(bounds.x, y, bounds.x + width, y);
+        }
+    }
+
+    /**
+     * Draws a line through the individual samples, for zoom levels of one or more pixels per sample.
+     */
+    private void paintSamples(Graphics2D g, Rectangle bounds, int yh) {
+        int[] xPoints = new int[bounds.width + 1];
+        int[] yPoints = new int[bounds.width + 1];
+        long first = (long) ((bounds.x - 1) / zoomFactor);
+        int count = (int) ((bounds.x + bounds.width - 1) / zoomFactor - first) + 1;
+        if (visibleSamples.length < count) {
+            visibleSamples = new short[count];
+        }
         for (int sourceIdx = 0; sourceIdx < this.sources.size(); sourceIdx++) {
             int y = yh * sourceIdx + yh / 2;
             SampleSource source = this.sources.get(sourceIdx);
-            int previousDistance = (int) (source.sampleAt(bounds.x - 1) / (float) Short.MAX_VALUE * yh / 2);
-            xPoints[sourceIdx] = new int[bounds.width + 1];
-            yPoints[sourceIdx] = new int[bounds.width + 1];
-            xPoints[sourceIdx][0] = bounds.x - 1;
-            yPoints[sourceIdx][0] = y + previousDistance;
+            source.read(first, visibleSamples, 0, count);
+            int previousDistance = (int) (visibleSamples[0] / (float) Short.MAX_VALUE * yh / 2);
+            xPoints[0] = bounds.x - 1;
+            yPoints[0] = y + previousDistance;
             for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
-                short sample = source.sampleAt((int) (x / zoomFactor));
+                short sample = visibleSamples[(int) ((long) (x / zoomFactor) - first)];
                 int currentDistance = (int) (sample / (float) Short.MAX_VALUE * yh / 2);
-                xPoints[sourceIdx][x - bounds.x + 1] = x;
-                yPoints[sourceIdx][x - bounds.x + 1] = y + currentDistance;
+                xPoints[x - bounds.x + 1] = x;
+                yPoints[x - bounds.x + 1] = y + currentDistance;
             }
-            g.drawPolyline(xPoints[sourceIdx], yPoints[sourceIdx], xPoints[sourceIdx].length);
+            g.drawPolyline(xPoints, yPoints, xPoints.length);
         }
-        
-        g.setColor(SystemColor.windowBorder);
-        for (int i = 1; i < this.sources.size(); i++) {
-            int y = bounds.y + yh * i;
-            g.drawLine(bounds.x, y, bounds.x + width, y);
+    }
+
+    /**
+     * Draws the range and RMS of the samples under each pixel column, from the source's waveform summaries.
+     */
+    private void paintSummaries(Graphics2D g, Rectangle bounds, int yh) {
+        int[] summary = new int[3];
+        float scale = yh / 2f / Short.MAX_VALUE;
+        for (int sourceIdx = 0; sourceIdx < this.sources.size(); sourceIdx++) {
+            int y = yh * sourceIdx + yh / 2;
+            SampleSource source = this.sources.get(sourceIdx);
+            for (int x = bounds.x; x < bounds.x + bounds.width; x++) {
+                int from = (int) (x / zoomFactor);
+                int to = Math.max(from + 1, (int) ((x + 1) / zoomFactor));
+                source.summarize(from, to, summary);
+                g.setColor(SystemColor.windowText);
+                g.drawLine(x, y + (int) (summary[0] * scale), x, y + (int) (summary[1] * scale));
+                int rmsDistance = (int) (summary[2] * scale);
+                if (rmsDistance > 0) {
+                    g.setColor(SystemColor.textInactiveText);
+                    g.drawLine(x, y - rmsDistance, x, y + rmsDistance);
+                }
+            }
         }
     }
 
@@ -100,15 +149,68 @@ public class SampleViewer extends JPanel implements Scrollable, MouseListener, M
     public void addSampleSource(SampleSource source) {
         this.sources.add(source);
         size.height = Math.max(40, sources.size() * 20);
-        int newWidth = (int) (source.size() * zoomFactor);
-        size.width = Math.max(size.width, newWidth);
+        updateWidth();
         revalidate();
         repaint();
     }
+
+    private void updateWidth() {
+        long maxSize = 0;
+        for (SampleSource source : sources) {
+            maxSize = Math.max(maxSize, source.length());
+        }
+        size.width = (int) Math.min(Integer.MAX_VALUE / 2, (long) (maxSize * (double) zoomFactor));
+    }
+
+    public float getZoomFactor() {
+        return zoomFactor;
+    }
+
+    /**
+     * Sets the zoom, in pixels per sample, keeping the sample under {@code anchorX} in place.
+     * @param anchorX the x coordinate to keep in place, relative to this component
+     */
+    public void setZoomFactor(float zoomFactor, int anchorX) {
+        float newZoomFactor = Math.max(MIN_ZOOM_FACTOR, Math.min(MAX_ZOOM_FACTOR, zoomFactor));
+        if (newZoomFactor == this.zoomFactor) {
+            return;
+        }
+        double anchorSample = anchorX / (double) this.zoomFactor;
+        this.zoomFactor = newZoomFactor;
+        updateWidth();
+
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (viewport != null) {
+            Point viewPosition = viewport.getViewPosition();
+            int anchorOnScreen = anchorX - viewPosition.x;
+            setSize(size.width, getHeight());
+            int maxX = Math.max(0, size.width - viewport.getExtentSize().width);
+            viewPosition.x = (int) Math.max(0, Math.min(maxX, anchorSample * newZoomFactor - anchorOnScreen));
+            viewport.setViewPosition(viewPosition);
+        }
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Zooms in or out around the center of the visible area.
+     * @param factor the amount to multiply the zoom by
+     */
+    public void zoom(float factor) {
+        Rectangle visible = getVisibleRect();
+        setZoomFactor(zoomFactor * factor, visible.x + visible.width / 2);
+    }
+
+    /**
+     * Scrolls so that the given sample is visible.
+     */
+    public void scrollToSample(int position) {
+        scrollRectToVisible(new Rectangle((int) (position * zoomFactor), 0, 1, 1));
+    }
     
     public void removeAllSources() {
         this.sources.clear();
-        size.width = 0;
+        updateWidth();
         revalidate();
         repaint();
     }
@@ -174,6 +276,17 @@ public class SampleViewer extends JPanel implements Scrollable, MouseListener, M
     @Override
     public void mouseMoved(MouseEvent e) {
     }
+
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        if (!e.isControlDown()) {
+            // Let the scroll pane handle plain scrolling
+            getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+            return;
+        }
+        float factor = (float) Math.pow(WHEEL_ZOOM_STEP, -e.getPreciseWheelRotation());
+        setZoomFactor(zoomFactor * factor, e.getX());
+    }
     
     private void fireDragEvent(int distance, boolean done) {
         for (Consumer<DragEvent> listener : dragListeners) {
@@ -1,6 +1,7 @@
 package bandautocut.clap.detect;
 
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 /**
  *
@@ -11,24 +12,31 @@ public class ShortBufferSampleSource implements SampleSource {
     private final ShortBuffer buf;
     private final int size;
     private final float volumeMultiplier;
+    private final WaveformPyramid waveform;
 
     private int offset;
+    private int start;
 
     public ShortBufferSampleSource(String name, ShortBuffer buf, float volumeMultiplier) {
+        this(name, buf, volumeMultiplier, WaveformPyramid.build(buf));
+    }
+
+    public ShortBufferSampleSource(String name, ShortBuffer buf, float volumeMultiplier, WaveformPyramid waveform) {
         this.name = name;
         this.buf = buf;
         this.size = buf.limit();
         this.volumeMultiplier = volumeMultiplier;
+        this.waveform = waveform;
     }
 
     @Override
     public int size() {
-        return buf.remaining();
+        return start + buf.remaining();
     }
 
     @Override
     public short sampleAt(int position) {
-        int offsetPosition = position - offset;
+        int offsetPosition = position - offset - start;
 
         if (offsetPosition < 0 || offsetPosition >= size) {
             return 0;
@@ -38,7 +46,79 @@ public class ShortBufferSampleSource implements SampleSource {
             return buf.get(offsetPosition);
         }
 
-        return (short) (buf.get(offsetPosition) * volumeMultiplier);
+        return saturate(buf.get(offsetPosition) * volumeMultiplier);
+    }
+
+    /**
+     * The gain is chosen for most of the recording, so its loudest samples, claps among them, can go past full scale.
+     * @return the sample held at full scale instead of wrapping around
+     */
+    private static short saturate(float sample) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    @Override
+    public void read(long position, short[] dst, int offset, int length) {
+        readUnscaled(position, dst, offset, length);
+        if (volumeMultiplier != 1) {
+            float gain = volumeMultiplier;
+            for (int i = offset; i < offset + length; i++) {
+                dst[i] = saturate(dst[i] * gain);
+            }
+        }
+    }
+
+    @Override
+    public void readUnscaled(long position, short[] dst, int offset, int length) {
+        long offsetPosition = position - this.offset - start;
+        int from = (int) Math.max(0, Math.min(length, -offsetPosition));
+        int to = (int) Math.max(from, Math.min(length, size - offsetPosition));
+        Arrays.fill(dst, offset, offset + from, (short) 0);
+        if (to > from) {
+            buf.get((int) (offsetPosition + from), dst, offset + from, to - from);
+        }
+        Arrays.fill(dst, offset + to, offset + length, (short) 0);
+    }
+
+    @Override
+    public float getGain() {
+        return volumeMultiplier;
+    }
+
+    @Override
+    public void read(long position, float[] dst, int offset, int length) {
+        long offsetPosition = position - this.offset - start;
+        int from = (int) Math.max(0, Math.min(length, -offsetPosition));
+        int to = (int) Math.max(from, Math.min(length, size - offsetPosition));
+        Arrays.fill(dst, offset, offset + from, 0);
+        float scale = volumeMultiplier / 32768;
+        float max = Short.MAX_VALUE / 32768f;
+        for (int i = from, index = (int) (offsetPosition + from); i < to; i++, index++) {
+            dst[offset + i] = Math.max(-1, Math.min(max, buf.get(index) * scale));
+        }
+        Arrays.fill(dst, offset + to, offset + length, 0);
+    }
+
+    @Override
+    public void summarize(int from, int to, int[] out) {
+        int offsetFrom = Math.max(0, from - offset - start);
+        int offsetTo = Math.min(size, to - offset - start);
+        if (offsetFrom >= offsetTo) {
+            out[0] = out[1] = out[2] = 0;
+            return;
+        }
+
+        if (offsetTo - offsetFrom < WaveformPyramid.binSize(0)) {
+            SampleSource.super.summarize(from, to, out);
+            return;
+        }
+
+        waveform.summarize(offsetFrom, offsetTo, out);
+        if (volumeMultiplier != 1) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) (out[i] * volumeMultiplier)));
+            }
+        }
     }
 
     @Override
@@ -46,6 +126,21 @@ public class ShortBufferSampleSource implements SampleSource {
         return name;
     }
 
+    public WaveformPyramid getWaveform() {
+        return waveform;
+    }
+
+    /**
+     * @return the position of the first buffered sample in the whole recording, when only a window of it was decoded
+     */
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
     public int getOffset() {
         return offset;
     }
@@ -0,0 +1,343 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Chunk-fed version of {@link ACDRClapDetect}, which can be attached directly to the decoder.
+ * Keeps the short term and long term means across chunks, and asks the decoder to stop once
+ * {@code numberOfClaps} claps with an acceptable jitter have been found.
+ */
+public class StreamingACDRClapDetect implements SampleStreamListener {
+
+    /** Positions are counted in {@code int}s, so a stream can't be longer than this. */
+    public static final long MAX_SAMPLES = Integer.MAX_VALUE;
+
+    /** How many of the best clap sequences are offered as candidates. */
+    public static final int MAX_CANDIDATES = 5;
+
+    /** Decoded chunks are taken in pieces of this many samples, whose magnitudes are worked out together. */
+    private static final int CHUNK_SAMPLES = 4096;
+
+    private final ACDRClapDetect.SampleParameters parameters;
+    private final int numberOfClaps;
+    private final int[] clapPositions;
+    /** Magnitudes of the most recent samples, as a ring, or {@code null} when sweeping a track. */
+    private final int[] history;
+    private final int historyMask;
+    private final LowestJitter lowestJitter = new LowestJitter(MAX_CANDIDATES);
+    private final short[] chunk = new short[CHUNK_SAMPLES];
+    private final int[] magnitudes = new int[CHUNK_SAMPLES];
+
+    private boolean stopWhenConfirmed = true;
+    /** The track being swept, which past magnitudes are read from instead of the history. */
+    private ShortBuffer track;
+
+    private int numberOfFoundClaps;
+    private int index;
+    private int nextIndex;
+    private int maxVal;
+    private int clapDuration;
+    private int shortTermSamples;
+    private int shortTermSum;
+    private int longTermSamples;
+    private int longTermSum;
+
+    private boolean confirmed;
+    private int stopIndex = -1;
+
+    public StreamingACDRClapDetect(ACDRClapDetect.Parameters parameters, int numberOfClaps) {
+        this(parameters, numberOfClaps, AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the samples the detector will be fed
+     */
+    public StreamingACDRClapDetect(ACDRClapDetect.Parameters parameters, int numberOfClaps, AnalysisContext context) {
+        this(parameters.inSamples(context), numberOfClaps);
+    }
+
+    StreamingACDRClapDetect(ACDRClapDetect.SampleParameters parameters, int numberOfClaps) {
+        this(parameters, numberOfClaps, true);
+    }
+
+    private StreamingACDRClapDetect(ACDRClapDetect.SampleParameters parameters, int numberOfClaps, boolean keepHistory) {
+        this.parameters = parameters;
+        this.numberOfClaps = numberOfClaps;
+        this.clapPositions = new int[parameters.getClapsMax()];
+        if (!keepHistory) {
+            this.history = null;
+            this.historyMask = 0;
+            return;
+        }
+
+        // Enough history to slide the long term window and to take a clap back out of the means
+        int historyNeeded = Math.max(parameters.getLongTermDuration(), parameters.getShortTermDuration());
+        historyNeeded = Math.max(historyNeeded, parameters.getMaxAllowedClapDuration() + 3);
+        int historySize = Integer.highestOneBit(historyNeeded) << 1;
+        this.history = new int[historySize];
+        this.historyMask = historySize - 1;
+    }
+
+    @Override
+    public boolean samplesDecoded(ShortBuffer samples) {
+        int start = samples.position();
+        int end = samples.limit();
+        for (int from = start; from < end; from += CHUNK_SAMPLES) {
+            int length = Math.min(CHUNK_SAMPLES, end - from);
+            samples.get(from, chunk, 0, length);
+            SampleKernels.absEnvelope(chunk, 0, length, magnitudes, 0);
+            for (int k = 0; k < length; k++) {
+                if (!process(magnitudes[k])) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs the detection over a whole track, as if the track was decoded into a new detector that stops once
+     * confirmed, and leaves the detector as that decode would.
+     * <p>
+     * Past magnitudes are read from the track, so nothing is kept in a history. That lets the sweep jump over the
+     * advance after each clap, and over blocks where the track's sums show the short term mean can't rise above the
+     * threshold, which would pass through {@link #process(int)} without changing anything but the sums.
+     */
+    static StreamingACDRClapDetect sweep(TuningTrack track, ACDRClapDetect.SampleParameters parameters, int numberOfClaps) {
+        StreamingACDRClapDetect detector = new StreamingACDRClapDetect(parameters, numberOfClaps, false);
+        detector.sweep(track);
+        return detector;
+    }
+
+    private void sweep(TuningTrack track) {
+        this.track = track.getSamples();
+        int length = track.getLength();
+        int shortTermDuration = parameters.getShortTermDuration();
+        int longTermDuration = parameters.getLongTermDuration();
+        while (index < length) {
+            int i = index;
+            if (numberOfFoundClaps < parameters.getClapsMax()) {
+                if (i < nextIndex) {
+                    // Still inside the advance after the previous clap, up to where the detection would stop
+                    int end = Math.min(nextIndex, length);
+                    if (stopIndex >= 0) {
+                        end = Math.min(end, Math.max(stopIndex, i));
+                    }
+                    if (end > i) {
+                        index = end;
+                        continue;
+                    }
+                } else if ((i & (TuningTrack.SKIP_BLOCK_SIZE - 1)) == 0
+                        && clapDuration == 0
+                        && shortTermSamples == shortTermDuration
+                        && longTermSamples == longTermDuration) {
+                    int end = Math.min(i + TuningTrack.SKIP_BLOCK_SIZE, length);
+                    if ((stopIndex < 0 || stopIndex >= end) && skipBlock(track, i, end)) {
+                        index = end;
+                        continue;
+                    }
+                }
+            }
+            if (!process(Math.abs(this.track.get(i)))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Moves the means over a block of the track if the short term mean can't rise above the threshold in it.
+     * @return whether the block was skipped
+     */
+    private boolean skipBlock(TuningTrack track, int i, int end) {
+        int shortTermDuration = parameters.getShortTermDuration();
+        int longTermDuration = parameters.getLongTermDuration();
+        // The sums are sliding window sums plus a constant, which only changes when a clap is taken out
+        long shortOffset = shortTermSum - (track.prefixSum(i) - track.prefixSum(i - shortTermDuration));
+        long longOffset = longTermSum - (track.prefixSum(i) - track.prefixSum(i - longTermDuration));
+        long shortMax = shortOffset + (long) shortTermDuration * track.maxMagnitude(i - shortTermDuration + 1, end);
+        long longMin = longOffset;
+        if (end - longTermDuration <= i + 1) {
+            longMin += track.prefixSum(i + 1) - track.prefixSum(end - longTermDuration);
+        }
+        long longMax = longOffset + track.prefixSum(end) - track.prefixSum(i + 1 - longTermDuration);
+        if (longMin < Integer.MIN_VALUE || longMax > Integer.MAX_VALUE
+                || shortMax / shortTermDuration > parameters.getThresholdConstant() + longMin / longTermDuration) {
+            return false;
+        }
+        shortTermSum = (int) (shortOffset + track.prefixSum(end) - track.prefixSum(end - shortTermDuration));
+        longTermSum = (int) (longOffset + track.prefixSum(end) - track.prefixSum(end - longTermDuration));
+        return true;
+    }
+
+    private int magnitudeAt(int position) {
+        return history != null ? history[position & historyMask] : Math.abs(track.get(position));
+    }
+
+    /**
+     * Processes the magnitude of the next sample in the stream.
+     * @return whether more samples are wanted
+     */
+    private boolean process(int magnitude) {
+        int i = index++;
+        if (history != null) {
+            history[i & historyMask] = magnitude;
+        }
+
+        if (stopIndex >= 0 && i >= stopIndex) {
+            return false;
+        }
+        if (numberOfFoundClaps >= parameters.getClapsMax()) {
+            return false;
+        }
+        if (i < nextIndex) {
+            // Still inside the advance after the previous clap
+            return true;
+        }
+        nextIndex = i + 1;
+
+        if (longTermSamples == parameters.getLongTermDuration()) {
+            longTermSum -= magnitudeAt(i - longTermSamples);
+            longTermSamples--;
+        }
+        longTermSum += magnitude;
+        longTermSamples++;
+        int longTermMean = longTermSum / longTermSamples;
+
+        if (shortTermSamples == parameters.getShortTermDuration()) {
+            shortTermSum -= magnitudeAt(i - shortTermSamples);
+            shortTermSamples--;
+        }
+        shortTermSum += magnitude;
+        shortTermSamples++;
+        int shortTermMean = shortTermSum / shortTermSamples;
+
+        int threshold = parameters.getThresholdConstant() + longTermMean;
+
+        if (shortTermMean > threshold) {
+            maxVal = Math.max(maxVal, shortTermMean - threshold);
+            if (++clapDuration > parameters.getMaxAllowedClapDuration()) {
+                maxVal = 0;
+                clapDuration = 0;
+            } else {
+                int clapLikeliness = (maxVal * maxVal) / clapDuration;
+                if (clapLikeliness > parameters.getDecisionThreshold()) {
+                    clapPositions[numberOfFoundClaps++] = i;
+
+                    if (shortTermSamples > (clapDuration + 2)) {
+                        // Remove the clap's samples from the averages, to avoid interfering with future claps
+                        for (int j = i - (clapDuration + 2); j < i; j++) {
+                            int previousMagnitude = magnitudeAt(j);
+                            longTermSum -= previousMagnitude;
+                            longTermSamples--;
+                            shortTermSum -= previousMagnitude;
+                            shortTermSamples--;
+                        }
+                    }
+
+                    nextIndex = i + parameters.getClapAdvance() + 1;
+                    clapDuration = 0;
+                    maxVal = 0;
+
+                    clapFound();
+                }
+            }
+        } else {
+            maxVal = 0;
+            clapDuration = 0;
+        }
+
+        return true;
+    }
+
+    private void clapFound() {
+        if (confirmed || !stopWhenConfirmed || numberOfFoundClaps < numberOfClaps) {
+            return;
+        }
+
+        LowestJitterResult jitterResult = lowestJitter.findLowestJitter(clapPositions, numberOfFoundClaps, numberOfClaps);
+        if (jitterResult.getBestPosition() >= 0 && jitterResult.getAverageJitter() <= parameters.getMaxAverageJitter()) {
+            confirmed = true;
+            // Keep decoding until the reported position is covered by the decoded audio
+            stopIndex = jitterResult.getBestPosition() + parameters.getPositionAdvance();
+        }
+    }
+
+    /**
+     * Builds the detection result from the claps found so far.
+     */
+    public ClapDetectResult getResult() {
+        return resultFor(lowestJitter, clapPositions, numberOfFoundClaps, numberOfClaps, parameters.getPositionAdvance());
+    }
+
+    /**
+     * Picks the best sequences from a list of clap positions.
+     * @param positionAdvance the distance from the last clap of a sequence to its reported position
+     */
+    static ClapDetectResult resultFor(LowestJitter lowestJitter, int[] clapPositions, int numberOfFoundClaps, int numberOfClaps, int positionAdvance) {
+        ClapDetectResult result = new ClapDetectResult();
+        if (numberOfFoundClaps < numberOfClaps) {
+            return result;
+        }
+
+        LowestJitterResult jitterResult = lowestJitter.findLowestJitter(clapPositions, numberOfFoundClaps, numberOfClaps);
+        int[] positions = new int[jitterResult.getNumberOfCandidates()];
+        int[] averageJitters = new int[positions.length];
+        for (int rank = 0; rank < positions.length; rank++) {
+            positions[rank] = jitterResult.getEnd(rank) + positionAdvance;
+            averageJitters[rank] = jitterResult.getAverageJitter(rank);
+        }
+        result.setTotalJitter(positions.length > 0 ? jitterResult.getTotalJitter(0) : Integer.MAX_VALUE);
+        result.setAverageJitter(jitterResult.getAverageJitter());
+        result.setClapIndex(jitterResult.getBestPosition());
+        result.setBestPosition(jitterResult.getBestPosition() + positionAdvance);
+        result.setCandidatePositions(positions);
+        result.setCandidateAverageJitters(averageJitters);
+
+        return result;
+    }
+
+    /**
+     * @return the position of the last clap in the best sequence found so far, or -1 if there is none
+     */
+    int getClapIndex() {
+        if (numberOfFoundClaps < numberOfClaps) {
+            return -1;
+        }
+        return lowestJitter.findLowestJitter(clapPositions, numberOfFoundClaps, numberOfClaps).getBestPosition();
+    }
+
+    /**
+     * @return the positions of the claps found so far, in order
+     */
+    public int[] getClapPositions() {
+        return Arrays.copyOf(clapPositions, numberOfFoundClaps);
+    }
+
+    /**
+     * @return whether a clap sequence with an acceptable jitter has been found
+     */
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    /**
+     * @return the number of samples seen so far
+     */
+    public int getSamplesProcessed() {
+        return index;
+    }
+
+    public int getNumberOfFoundClaps() {
+        return numberOfFoundClaps;
+    }
+
+    public boolean isStopWhenConfirmed() {
+        return stopWhenConfirmed;
+    }
+
+    public void setStopWhenConfirmed(boolean stopWhenConfirmed) {
+        this.stopWhenConfirmed = stopWhenConfirmed;
+    }
+}
@@ -0,0 +1,197 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Loudness statistics of a whole recording, gathered from mono samples as they are decoded.
+ * <p>
+ * Besides the peak and RMS of everything seen, the samples are cut into short blocks whose peak and RMS levels are
+ * counted in histograms, so the level most of the recording reaches can be told apart from a few loud clicks.
+ * Blocks below {@link #GATE_DBFS} are left out of the percentiles, so silence doesn't pull them down. A final block
+ * shorter than {@link #BLOCK_MILLIS} isn't counted at all.
+ */
+public class StreamingLoudness implements SampleStreamListener {
+
+    public static final int BLOCK_MILLIS = 100;
+    /** Histogram bins are this many decibels wide, from 0 dBFS down. */
+    public static final double BIN_DB = 0.5;
+    public static final int HISTOGRAM_BINS = 192;
+    public static final double GATE_DBFS = -70;
+
+    private static final double FULL_SCALE = 32768;
+
+    private final int blockSamples;
+    private final int[] peakHistogram = new int[HISTOGRAM_BINS];
+    private final int[] loudnessHistogram = new int[HISTOGRAM_BINS];
+
+    private long sampleCount;
+    private int peak;
+    private double squares;
+    private int blocks;
+
+    private int blockCount;
+    private int blockPeak;
+    private long blockSquares;
+
+    public StreamingLoudness() {
+        this(AnalysisContext.defaultContext());
+    }
+
+    /**
+     * @param context the rate of the samples, which sets the length of the blocks
+     */
+    public StreamingLoudness(AnalysisContext context) {
+        this.blockSamples = Math.max(1, context.samples(BLOCK_MILLIS));
+    }
+
+    /**
+     * @return the statistics of a whole buffer, from position to limit
+     */
+    public static StreamingLoudness of(ShortBuffer samples, AnalysisContext context) {
+        StreamingLoudness loudness = new StreamingLoudness(context);
+        loudness.samplesDecoded(samples.duplicate());
+        return loudness;
+    }
+
+    @Override
+    public boolean samplesDecoded(ShortBuffer samples) {
+        int end = samples.limit();
+        int from = samples.position();
+        while (from < end) {
+            int to = Math.min(end, from + blockSamples - blockCount);
+            blockPeak = Math.max(blockPeak, SampleKernels.peak(samples, from, to));
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                int sample = samples.get(i);
+                sum += sample * sample;
+            }
+            blockSquares += sum;
+            blockCount += to - from;
+            from = to;
+            if (blockCount == blockSamples) {
+                finishBlock();
+            }
+        }
+        return true;
+    }
+
+    private void finishBlock() {
+        sampleCount += blockCount;
+        peak = Math.max(peak, blockPeak);
+        squares += blockSquares;
+        peakHistogram[bin(blockPeak)]++;
+        loudnessHistogram[bin(Math.sqrt(blockSquares / (double) blockCount))]++;
+        blocks++;
+
+        blockCount = 0;
+        blockPeak = 0;
+        blockSquares = 0;
+    }
+
+    private static int bin(double magnitude) {
+        double db = dbfs(magnitude);
+        return (int) Math.max(0, Math.min(HISTOGRAM_BINS - 1, -db / BIN_DB));
+    }
+
+    /**
+     * @return the level of the block peak that the given fraction of the blocks above the gate stay at or below, in
+     * dBFS, or {@link Double#NEGATIVE_INFINITY} if every block is below the gate
+     */
+    public double getPeakPercentile(double fraction) {
+        return percentile(peakHistogram, fraction);
+    }
+
+    /**
+     * @return the short term RMS level that the given fraction of the blocks above the gate stay at or below, in
+     * dBFS, or {@link Double#NEGATIVE_INFINITY} if every block is below the gate
+     */
+    public double getLoudnessPercentile(double fraction) {
+        return percentile(loudnessHistogram, fraction);
+    }
+
+    private static double percentile(int[] histogram, double fraction) {
+        int gateBin = (int) (-GATE_DBFS / BIN_DB);
+        long gated = 0;
+        for (int i = 0; i < gateBin; i++) {
+            gated += histogram[i];
+        }
+        if (gated == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        // Walk up from the quietest bin above the gate, and report the top of the bin the fraction is reached in
+        double wanted = fraction * gated;
+        long counted = 0;
+        for (int i = gateBin - 1; i > 0; i--) {
+            counted += histogram[i];
+            if (counted >= wanted) {
+                return -i * BIN_DB;
+            }
+        }
+        return 0;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getBlockCount() {
+        return blocks;
+    }
+
+    /**
+     * @return the largest |sample|
+     */
+    public int getPeak() {
+        return peak;
+    }
+
+    public double getPeakDbfs() {
+        return dbfs(peak);
+    }
+
+    /**
+     * @return the RMS of all samples counted
+     */
+    public double getRms() {
+        return sampleCount > 0 ? Math.sqrt(squares / sampleCount) : 0;
+    }
+
+    public double getRmsDbfs() {
+        return dbfs(getRms());
+    }
+
+    /**
+     * @return the number of blocks whose peak falls in each bin; bin {@code i} holds the levels from
+     * {@code -(i + 1) * BIN_DB} up to {@code -i * BIN_DB} dBFS, and the last bin everything quieter
+     */
+    public int[] getPeakHistogram() {
+        return peakHistogram.clone();
+    }
+
+    /**
+     * @return the number of blocks whose RMS level falls in each bin, binned like {@link #getPeakHistogram()}
+     */
+    public int[] getLoudnessHistogram() {
+        return loudnessHistogram.clone();
+    }
+
+    /**
+     * @return a sample magnitude in decibels relative to full scale
+     */
+    public static double dbfs(double magnitude) {
+        return 20 * Math.log10(magnitude / FULL_SCALE);
+    }
+
+    /**
+     * @return the fraction of full scale a level in dBFS is at
+     */
+    public static double fraction(double dbfs) {
+        return Math.pow(10, dbfs / 20);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("peak %.1f dBFS, RMS %.1f dBFS, 99%% block peak %.1f dBFS, 95%% loudness %.1f dBFS",
+                getPeakDbfs(), getRmsDbfs(), getPeakPercentile(0.99), getLoudnessPercentile(0.95));
+    }
+}
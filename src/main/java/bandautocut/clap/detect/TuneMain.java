@@ -0,0 +1,159 @@
+package bandautocut.clap.detect;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tunes the ACDR parameters on a corpus of recordings with known clap positions.
+ * <p>
+ * The labels file has one recording per line: its path, relative to the labels file, then a comma and the time of the
+ * last clap in seconds. Blank lines and lines starting with # are ignored.
+ */
+public class TuneMain {
+
+    public static void main(String[] args) throws IOException {
+        ParameterTuner.Space space = new ParameterTuner.Space();
+        int randomCount = 0;
+        long seed = 1;
+        float toleranceSeconds = 0.1f;
+        Path outputPath = Path.of("clap-detect-tuned.properties");
+        Path tablePath = Path.of("clap-detect-tuning.csv");
+        Path labelsPath = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--random")) {
+                    randomCount = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--seed")) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (arg.equals("--tolerance")) {
+                    toleranceSeconds = Float.parseFloat(args[++i]);
+                } else if (arg.equals("--output")) {
+                    outputPath = Path.of(args[++i]);
+                } else if (arg.equals("--table")) {
+                    tablePath = Path.of(args[++i]);
+                } else if (arg.startsWith("--threshold-constant=")) {
+                    space.setThresholdConstants(values(arg));
+                } else if (arg.startsWith("--decision-threshold=")) {
+                    space.setDecisionThresholds(values(arg));
+                } else if (arg.startsWith("--short-term=")) {
+                    space.setShortTermDurations(durations(arg));
+                } else if (arg.startsWith("--long-term=")) {
+                    space.setLongTermDurations(durations(arg));
+                } else if (arg.startsWith("--max-clap-duration=")) {
+                    space.setMaxAllowedClapDurations(durations(arg));
+                } else if (arg.startsWith("--clap-advance=")) {
+                    space.setClapAdvances(durations(arg));
+                } else if (arg.startsWith("--") || labelsPath != null) {
+                    exitUsage();
+                } else {
+                    labelsPath = Path.of(arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException ex) {
+            exitUsage();
+        }
+        if (labelsPath == null) {
+            exitUsage();
+        }
+
+        AnalysisContext context = AnalysisContext.defaultContext();
+        List<TuningTrack> tracks = loadTracks(labelsPath, context);
+        System.out.printf("Loaded %d tracks\n", tracks.size());
+
+        List<ACDRClapDetect.Parameters> candidates = randomCount > 0 ? space.random(randomCount, seed) : space.grid();
+        ParameterTuner tuner = new ParameterTuner(tracks, context);
+        tuner.setToleranceMillis(toleranceSeconds * 1000);
+        System.out.printf("Trying %d parameter sets on %d threads\n", candidates.size(), tuner.getParallelism());
+        long start = System.nanoTime();
+        List<TuningResult> results = tuner.evaluate(candidates);
+        System.out.printf("Done in %.1f seconds\n", (System.nanoTime() - start) / 1e9);
+
+        TuningResult best = results.get(0);
+        try (Writer out = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+            best.getParameters().toProperties().store(out, String.format(Locale.ROOT,
+                    "Tuned on %d tracks: %d hits, mean error %.3fs, mean latency %.1fs",
+                    best.getNumberOfTracks(), best.getHits(), best.getMeanErrorSeconds(), best.getMeanLatencySeconds()));
+        }
+        writeTable(results, tablePath);
+
+        System.out.printf("Best: %d of %d within %.2fs, mean error %.3fs, mean latency %.1fs\n",
+                best.getHits(), best.getNumberOfTracks(), toleranceSeconds, best.getMeanErrorSeconds(), best.getMeanLatencySeconds());
+        System.out.println("Parameters written to " + outputPath + ", table written to " + tablePath);
+    }
+
+    private static List<TuningTrack> loadTracks(Path labelsPath, AnalysisContext context) throws IOException {
+        Path directory = labelsPath.toAbsolutePath().getParent();
+        AudioResampler resampler = new AudioResampler();
+        List<TuningTrack> tracks = new ArrayList<>();
+        for (String line : Files.readAllLines(labelsPath, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int comma = line.lastIndexOf(',');
+            if (comma < 0) {
+                throw new IOException("Missing clap time: " + line);
+            }
+            Path path = directory.resolve(line.substring(0, comma).trim());
+            int position = context.samplesForSeconds(Double.parseDouble(line.substring(comma + 1).trim()));
+            System.out.println("Loading " + path);
+            tracks.add(TuningTrack.load(path, position, resampler, context));
+        }
+        return tracks;
+    }
+
+    private static void writeTable(List<TuningResult> results, Path tablePath) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(tablePath, StandardCharsets.UTF_8)) {
+            out.write("thresholdConstant,decisionThreshold,shortTermMillis,longTermMillis,maxClapMillis,clapAdvanceMillis,"
+                    + "hits,tracks,accuracy,meanErrorSeconds,meanLatencySeconds,elapsedMillis");
+            out.newLine();
+            for (TuningResult result : results) {
+                ACDRClapDetect.Parameters p = result.getParameters();
+                out.write(String.format(Locale.ROOT, "%d,%d,%s,%s,%s,%s,%d,%d,%.4f,%.4f,%.2f,%.1f",
+                        p.getThresholdConstant(), p.getDecisionThreshold(),
+                        ACDRClapDetect.Parameters.formatMillis(p.getShortTermMillis()),
+                        ACDRClapDetect.Parameters.formatMillis(p.getLongTermMillis()),
+                        ACDRClapDetect.Parameters.formatMillis(p.getMaxClapMillis()),
+                        ACDRClapDetect.Parameters.formatMillis(p.getClapAdvanceMillis()), result.getHits(), result.getNumberOfTracks(),
+                        result.getAccuracy(), result.getMeanErrorSeconds(), result.getMeanLatencySeconds(), result.getElapsedMillis()));
+                out.newLine();
+            }
+        }
+    }
+
+    private static int[] values(String arg) {
+        return Arrays.stream(arg.substring(arg.indexOf('=') + 1).split(","))
+                .map(String::trim)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    private static double[] durations(String arg) {
+        return Arrays.stream(arg.substring(arg.indexOf('=') + 1).split(","))
+                .map(String::trim)
+                .mapToDouble(Double::parseDouble)
+                .toArray();
+    }
+
+    private static void exitUsage() {
+        System.err.println("Usage: java -cp clap-detect.jar bandautocut.clap.detect.TuneMain [options] <labels file>");
+        System.err.println("  --random <n>               try n random parameter sets instead of the whole grid");
+        System.err.println("  --seed <n>                 seed for the random search");
+        System.err.println("  --tolerance <secs>         how close a detection must be to count (default 0.1)");
+        System.err.println("  --output <file>            best parameters (default clap-detect-tuned.properties)");
+        System.err.println("  --table <file>             results table (default clap-detect-tuning.csv)");
+        System.err.println("  --threshold-constant=a,b,...  --decision-threshold=...  --short-term=...");
+        System.err.println("  --long-term=...  --max-clap-duration=...  --clap-advance=...");
+        System.err.println("                             values to try for each parameter, durations in milliseconds");
+        System.exit(64); // EX_USAGE
+    }
+}
@@ -0,0 +1,96 @@
+package bandautocut.clap.detect;
+
+/**
+ * How well one parameter set did on a tuning corpus.
+ */
+public class TuningResult {
+
+    private final ACDRClapDetect.Parameters parameters;
+    private final int numberOfTracks;
+    private final AnalysisContext context;
+    private int hits;
+    private int detected;
+    private long totalError;
+    private long totalLatency;
+    private long elapsedNanos;
+
+    /**
+     * @param context the rate the tracks were decoded at
+     */
+    public TuningResult(ACDRClapDetect.Parameters parameters, int numberOfTracks, AnalysisContext context) {
+        this.parameters = parameters;
+        this.numberOfTracks = numberOfTracks;
+        this.context = context;
+    }
+
+    void add(int clapIndex, int expectedPosition, int samplesProcessed, int tolerance) {
+        if (clapIndex >= 0) {
+            int error = Math.abs(clapIndex - expectedPosition);
+            detected++;
+            totalError += error;
+            if (error <= tolerance) {
+                hits++;
+            }
+        }
+        totalLatency += samplesProcessed;
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public ACDRClapDetect.Parameters getParameters() {
+        return parameters;
+    }
+
+    public int getNumberOfTracks() {
+        return numberOfTracks;
+    }
+
+    /**
+     * @return the number of tracks where the claps were found within the tolerance
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    public double getAccuracy() {
+        return numberOfTracks > 0 ? hits / (double) numberOfTracks : 0;
+    }
+
+    /**
+     * @return the mean distance from the expected clap, in seconds, over the tracks where any claps were found
+     */
+    public double getMeanErrorSeconds() {
+        return detected > 0 ? totalError / (double) detected / context.getSampleRate() : Double.NaN;
+    }
+
+    /**
+     * @return the mean amount of audio decoded before the detection stopped, in seconds
+     */
+    public double getMeanLatencySeconds() {
+        return numberOfTracks > 0 ? totalLatency / (double) numberOfTracks / context.getSampleRate() : 0;
+    }
+
+    /**
+     * @return how long the corpus took to run with these parameters, in milliseconds
+     */
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    /**
+     * Orders by hits, then by mean error, then by latency.
+     */
+    int compareTo(TuningResult other) {
+        if (hits != other.hits) {
+            return Integer.compare(other.hits, hits);
+        }
+        double error = detected > 0 ? totalError / (double) detected : Double.MAX_VALUE;
+        double otherError = other.detected > 0 ? other.totalError / (double) other.detected : Double.MAX_VALUE;
+        if (error != otherError) {
+            return Double.compare(error, otherError);
+        }
+        return Long.compare(totalLatency, other.totalLatency);
+    }
+}
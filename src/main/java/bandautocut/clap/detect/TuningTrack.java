@@ -0,0 +1,190 @@
+package bandautocut.clap.detect;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recording with a known clap position, decoded once and shared by every parameter set the tuner tries.
+ * <p>
+ * Alongside the samples it keeps sums of |sample| at every 64th sample and the loudest sample of every 4096, which
+ * lets the detector work out window sums anywhere in the track and skip past stretches that are too quiet to hold a
+ * clap, without a full-size prefix array per track.
+ */
+public class TuningTrack {
+
+    static final int SUM_BLOCK_SHIFT = 6;
+    static final int SKIP_BLOCK_SHIFT = 12;
+    static final int SKIP_BLOCK_SIZE = 1 << SKIP_BLOCK_SHIFT;
+    /** Samples are summarized this many at a time, a whole number of skip blocks. */
+    private static final int CHUNK_SAMPLES = 16 * SKIP_BLOCK_SIZE;
+
+    private final Path path;
+    private final int expectedPosition;
+    private final ShortBuffer samples;
+    private final int length;
+    private final long[] blockSums;
+    private final int[] skipBlockMax;
+
+    public TuningTrack(Path path, int expectedPosition, ShortBuffer samples) {
+        this(path, expectedPosition, samples, Sums.of(samples));
+    }
+
+    /**
+     * @param sums the sums of the samples, gathered while they were decoded
+     */
+    TuningTrack(Path path, int expectedPosition, ShortBuffer samples, Sums sums) {
+        this.path = path;
+        this.expectedPosition = expectedPosition;
+        this.samples = samples;
+        this.length = samples.limit();
+
+        sums.finish();
+        blockSums = sums.blockSums;
+        skipBlockMax = sums.skipBlockMax;
+    }
+
+    /**
+     * Loads a raw 8 kHz mono PCM file, or decodes any other media file through the resampler.
+     * @param expectedPosition where the last clap is, in samples at the context's rate
+     * @param context the rate to decode at, which raw files must already be at
+     */
+    public static TuningTrack load(Path path, int expectedPosition, AudioResampler resampler, AnalysisContext context) throws IOException {
+        ShortBuffer samples;
+        if (RawMain.isRawFile(path.toString())) {
+            if (context.getSampleRate() != RawMain.RAW_CONTEXT.getSampleRate()) {
+                throw new IOException(path + " is raw " + RawMain.RAW_CONTEXT + " audio, which can't be tuned on at " + context);
+            }
+            MappedPcmFile pcmFile = MappedPcmFile.open(path, ByteOrder.nativeOrder());
+            if (pcmFile.segmentCount() > 1) {
+                throw new IOException(path + " is too long to tune on");
+            }
+            samples = pcmFile.segmentCount() == 0 ? ShortBuffer.allocate(0) : pcmFile.segment(0);
+            return new TuningTrack(path, expectedPosition, samples);
+        }
+        // Sum the samples as they are decoded, instead of going over them again afterwards
+        AnalysisPipeline pipeline = new AnalysisPipeline("tune-" + path.getFileName());
+        double durationSeconds = resampler.getMediaProbe().probeDurationSeconds(path.toString());
+        Sums sums = pipeline.addStage("sums", new Sums(context.samplesForSeconds(Math.max(0, durationSeconds))));
+        samples = pipeline.process(() -> resampler.resampleAudio(path.toString(), 1, context.getSampleRate(), pipeline)).asShortBuffer();
+        return new TuningTrack(path, expectedPosition, samples, sums);
+    }
+
+    /**
+     * @return the sum of |sample| for samples before {@code position}
+     */
+    long prefixSum(int position) {
+        long sum = blockSums[position >> SUM_BLOCK_SHIFT];
+        for (int i = position & ~((1 << SUM_BLOCK_SHIFT) - 1); i < position; i++) {
+            sum += Math.abs(samples.get(i));
+        }
+        return sum;
+    }
+
+    /**
+     * @return an upper bound on |sample| between {@code from} and {@code to}, exclusive
+     */
+    int maxMagnitude(int from, int to) {
+        int max = 0;
+        for (int block = from >> SKIP_BLOCK_SHIFT; block <= (to - 1) >> SKIP_BLOCK_SHIFT; block++) {
+            max = Math.max(max, skipBlockMax[block]);
+        }
+        return max;
+    }
+
+    /**
+     * Works out a track's sums from its samples as they arrive. The samples are summarized a whole chunk at a time,
+     * so every block but the last is complete.
+     */
+    static class Sums implements SampleStreamListener {
+        private final short[] chunk = new short[CHUNK_SAMPLES];
+        private int chunkLength;
+        private int length;
+        private long sum;
+        private long[] blockSums;
+        private int[] skipBlockMax;
+        private boolean finished;
+
+        /**
+         * @param expectedSamples the expected number of samples, used to size the arrays
+         */
+        Sums(int expectedSamples) {
+            blockSums = new long[(expectedSamples >> SUM_BLOCK_SHIFT) + 1];
+            skipBlockMax = new int[(expectedSamples + SKIP_BLOCK_SIZE - 1) >> SKIP_BLOCK_SHIFT];
+        }
+
+        static Sums of(ShortBuffer samples) {
+            Sums sums = new Sums(samples.limit());
+            ShortBuffer all = samples.duplicate();
+            all.position(0);
+            sums.samplesDecoded(all);
+            return sums;
+        }
+
+        @Override
+        public boolean samplesDecoded(ShortBuffer samples) {
+            int end = samples.limit();
+            for (int from = samples.position(); from < end; ) {
+                int count = Math.min(CHUNK_SAMPLES - chunkLength, end - from);
+                samples.get(from, chunk, chunkLength, count);
+                chunkLength += count;
+                from += count;
+                if (chunkLength == CHUNK_SAMPLES) {
+                    summarize();
+                }
+            }
+            return true;
+        }
+
+        private void summarize() {
+            int end = length + chunkLength;
+            if ((end >> SUM_BLOCK_SHIFT) >= blockSums.length) {
+                blockSums = Arrays.copyOf(blockSums, Math.max((end >> SUM_BLOCK_SHIFT) + 1, blockSums.length * 2));
+            }
+            int skipBlocks = (end + SKIP_BLOCK_SIZE - 1) >> SKIP_BLOCK_SHIFT;
+            if (skipBlocks > skipBlockMax.length) {
+                skipBlockMax = Arrays.copyOf(skipBlockMax, Math.max(skipBlocks, skipBlockMax.length * 2));
+            }
+            sum = SampleKernels.prefixSums(chunk, 0, chunkLength, 1 << SUM_BLOCK_SHIFT, sum, blockSums, length >> SUM_BLOCK_SHIFT);
+            SampleKernels.blockPeaks(chunk, 0, chunkLength, SKIP_BLOCK_SIZE, skipBlockMax, length >> SKIP_BLOCK_SHIFT);
+            length = end;
+            chunkLength = 0;
+        }
+
+        void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (chunkLength > 0) {
+                summarize();
+            }
+            blockSums = Arrays.copyOf(blockSums, (length >> SUM_BLOCK_SHIFT) + 1);
+            skipBlockMax = Arrays.copyOf(skipBlockMax, (length + SKIP_BLOCK_SIZE - 1) >> SKIP_BLOCK_SHIFT);
+            if ((length & ((1 << SUM_BLOCK_SHIFT) - 1)) == 0) {
+                blockSums[length >> SUM_BLOCK_SHIFT] = sum;
+            }
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return where the last clap is, in samples
+     */
+    public int getExpectedPosition() {
+        return expectedPosition;
+    }
+
+    public ShortBuffer getSamples() {
+        return samples;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,84 @@
+package bandautocut.clap.detect;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link SampleKernels} on the Vector API. Samples are widened to ints before taking their magnitude, so that
+ * {@link Short#MIN_VALUE} comes out as 32768 like it does in the scalar loops. Only loaded when the incubator module is
+ * present.
+ */
+final class VectorSampleKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+    private static final int LANES = INTS.length();
+    /** Lane sums are moved into a long before their total could overflow an int. */
+    private static final int SUM_FLUSH_SAMPLES = 1 << 15;
+
+    private VectorSampleKernels() {
+    }
+
+    private static IntVector magnitudes(short[] samples, int i) {
+        return ((IntVector) ShortVector.fromArray(SHORTS, samples, i).convertShape(VectorOperators.S2I, INTS, 0)).abs();
+    }
+
+    static int peak(short[] samples, int from, int to) {
+        int i = from;
+        int peak = 0;
+        if (to - from >= LANES) {
+            IntVector peaks = IntVector.zero(INTS);
+            for (; i <= to - LANES; i += LANES) {
+                peaks = peaks.max(magnitudes(samples, i));
+            }
+            peak = peaks.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < to; i++) {
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        return peak;
+    }
+
+    static long absSum(short[] samples, int from, int to) {
+        int i = from;
+        long sum = 0;
+        while (to - i >= LANES) {
+            int end = i + Math.min(SUM_FLUSH_SAMPLES, (to - i) / LANES * LANES);
+            IntVector sums = IntVector.zero(INTS);
+            for (; i < end; i += LANES) {
+                sums = sums.add(magnitudes(samples, i));
+            }
+            sum += sums.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < to; i++) {
+            sum += Math.abs(samples[i]);
+        }
+        return sum;
+    }
+
+    static void absEnvelope(short[] samples, int from, int to, int[] dst, int dstOffset) {
+        int i = from;
+        for (; i <= to - LANES; i += LANES) {
+            magnitudes(samples, i).intoArray(dst, dstOffset + i - from);
+        }
+        for (; i < to; i++) {
+            dst[dstOffset + i - from] = Math.abs(samples[i]);
+        }
+    }
+
+    static int firstRise(short[] samples, int from, int to, int minRise) {
+        int i = from;
+        for (; i <= to - LANES; i += LANES) {
+            IntVector rise = magnitudes(samples, i).sub(magnitudes(samples, i - 1));
+            VectorMask<Integer> rising = rise.compare(VectorOperators.GT, minRise);
+            if (rising.anyTrue()) {
+                return i + rising.firstTrue();
+            }
+        }
+        return SampleKernels.Scalar.firstRise(samples, i, to, minRise);
+    }
+}
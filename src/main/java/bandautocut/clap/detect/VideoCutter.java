@@ -0,0 +1,554 @@
+package bandautocut.clap.detect;
+
+import com.github.kokorin.jaffree.ffmpeg.FFmpeg;
+import com.github.kokorin.jaffree.ffmpeg.FFmpegResultFuture;
+import com.github.kokorin.jaffree.ffmpeg.NullOutput;
+import com.github.kokorin.jaffree.ffmpeg.UrlInput;
+import com.github.kokorin.jaffree.ffmpeg.UrlOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Cuts the start off a recording and converts the rest to 1080p.
+ * <p>
+ * In smart cut mode, a recording that is already 1920x1080 in a codec we can encode is not converted at all: only the
+ * frames from the cut to the next keyframe are encoded, and everything after that is copied as it is.
+ * <p>
+ * Conversions can be split into segments at keyframes, which are encoded by separate ffmpeg processes at the same time
+ * and joined without encoding them again.
+ */
+public class VideoCutter {
+
+    static final String SCALE_FILTER = "scale='min(1920,iw)':min'(1080,ih)':force_original_aspect_ratio=decrease,pad=1920:1080:(ow-iw)/2:(oh-ih)/2";
+
+    /** Encoders for the codecs a smart cut can match. */
+    private static final Map<String, String> ENCODERS = Map.of("h264", "libx264", "hevc", "libx265");
+    /** Filters that put a codec's parameter sets in front of every keyframe, as MPEG-TS carries them. */
+    private static final Map<String, String> ANNEX_B_FILTERS = Map.of("h264", "h264_mp4toannexb", "hevc", "hevc_mp4toannexb");
+    /** MP4 sample entries that allow parameter sets in the stream, so each part keeps its own. */
+    private static final Map<String, String> IN_BAND_TAGS = Map.of("h264", "avc3", "hevc", "hev1");
+
+    /** How far past the copied keyframe the joined output is decoded to check it. */
+    private static final double VERIFY_SECONDS = 5;
+
+    /** Segments shorter than this aren't worth a process of their own. */
+    private static final long MIN_SEGMENT_MILLIS = 60 * 1000;
+
+    private final MediaProbe mediaProbe;
+    private boolean smartCut;
+    private int segments = 1;
+
+    private final Set<FFmpegResultFuture> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    public VideoCutter() {
+        this(new MediaProbe());
+    }
+
+    /**
+     * @param mediaProbe the probe to read durations with, shared so that inputs already probed aren't probed again
+     */
+    public VideoCutter(MediaProbe mediaProbe) {
+        this.mediaProbe = mediaProbe;
+    }
+
+    /**
+     * @return the duration of the input in milliseconds, from its metadata, or by running it through ffmpeg if the
+     * metadata doesn't say
+     */
+    public long durationMillis(Path input) {
+        long probed = mediaProbe.probe(input.toString()).getDurationMillis();
+        if (probed >= 0) {
+            return probed;
+        }
+
+        System.out.println("No duration in the metadata of " + input + ", scanning it");
+        final AtomicLong atomicDuration = new AtomicLong();
+        await(FFmpeg.atPath()
+                .addInput(UrlInput.fromPath(input))
+                .setOverwriteOutput(true)
+                .addOutput(new NullOutput())
+                .setProgressListener(progress -> {
+                    atomicDuration.set(progress.getTimeMillis());
+                })
+                .executeAsync());
+        return atomicDuration.get();
+    }
+
+    /**
+     * Writes everything from {@code positionMillis} on to the output, scaled and padded to 1920x1080.
+     * @param progressListener receives how many milliseconds of the output have been written, or {@code null}
+     */
+    public void cut(Path input, Path output, long positionMillis, LongConsumer progressListener) {
+        if (smartCut && smartCut(input, output, positionMillis, progressListener)) {
+            return;
+        }
+        if (segments > 1 && segmentedCut(input, output, positionMillis, progressListener)) {
+            return;
+        }
+
+        FFmpeg ffmpeg = FFmpeg.atPath()
+                .addInput(
+                        UrlInput.fromPath(input)
+                        .setPosition(positionMillis)
+                )
+                .setOverwriteOutput(true)
+                .addArguments("-movflags", "faststart")
+                .setFilter("v", SCALE_FILTER)
+                .addOutput(UrlOutput.toUrl(output.toString()));
+        if (progressListener != null) {
+            ffmpeg.setProgressListener(progress -> progressListener.accept(progress.getTimeMillis()));
+        }
+        await(ffmpeg.executeAsync());
+    }
+
+    /**
+     * Converts the video in segments split at keyframes, all encoded at once with the machine's threads shared between
+     * them, then joins them and encodes the audio from the cut.
+     * @return {@code false} if the input is too short to split, and needs a single conversion
+     */
+    private boolean segmentedCut(Path input, Path output, long positionMillis, LongConsumer progressListener) {
+        long durationMillis = durationMillis(input);
+        long lengthMillis = durationMillis - positionMillis;
+        int count = (int) Math.min(segments, lengthMillis / MIN_SEGMENT_MILLIS);
+        if (count < 2) {
+            return false;
+        }
+
+        // Split as evenly as the keyframes allow, which keeps each segment's seek cheap
+        double[] keyframes = mediaProbe.probeKeyframes(input.toString());
+        List<Double> starts = new ArrayList<>();
+        starts.add(positionMillis / 1000.0);
+        for (int i = 1; i < count; i++) {
+            double target = (positionMillis + lengthMillis * i / count) / 1000.0;
+            double split = target;
+            for (double keyframe : keyframes) {
+                if (keyframe >= target) {
+                    split = keyframe;
+                    break;
+                }
+            }
+            if (split > starts.get(starts.size() - 1) && split < durationMillis / 1000.0) {
+                starts.add(split);
+            }
+        }
+        if (starts.size() < 2) {
+            return false;
+        }
+
+        MediaInfo.StreamInfo video = mediaProbe.probe(input.toString()).getVideoStream();
+        double halfFrameSeconds = video != null && video.getFrameRate() > 0 ? 0.5 / video.getFrameRate() : 0;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / starts.size());
+        System.out.printf("Encoding %s in %d segments with %d threads each\n", input, starts.size(), threads);
+
+        Path work = null;
+        List<FFmpegResultFuture> futures = new ArrayList<>();
+        try {
+            work = Files.createTempDirectory("segments");
+            List<Path> parts = new ArrayList<>();
+            AtomicLongArray written = new AtomicLongArray(starts.size());
+            for (int i = 0; i < starts.size(); i++) {
+                Path part = work.resolve("segment" + i + ".mp4");
+                parts.add(part);
+                UrlOutput partOutput = UrlOutput.toUrl(part.toString())
+                        .addArguments("-map", "0:v:0")
+                        .addArguments("-threads", String.valueOf(threads));
+                if (i + 1 < starts.size()) {
+                    // Stop before the frame the next segment starts with
+                    partOutput.addArguments("-t", String.format("%.6f", starts.get(i + 1) - starts.get(i) - halfFrameSeconds));
+                }
+                final int segment = i;
+                futures.add(track(FFmpeg.atPath()
+                        .addInput(UrlInput.fromPath(input)
+                                .addArguments("-ss", String.format("%.6f", starts.get(i))))
+                        .setOverwriteOutput(true)
+                        .setFilter("v", SCALE_FILTER)
+                        .addOutput(partOutput)
+                        .setProgressListener(progress -> {
+                            Long timeMillis = progress.getTimeMillis();
+                            if (progressListener != null && timeMillis != null) {
+                                written.set(segment, timeMillis);
+                                long total = 0;
+                                for (int j = 0; j < written.length(); j++) {
+                                    total += written.get(j);
+                                }
+                                progressListener.accept(total);
+                            }
+                        })
+                        .executeAsync()));
+            }
+            for (FFmpegResultFuture future : futures) {
+                await(future);
+            }
+
+            join(parts, work, input, positionMillis, output, null);
+            if (progressListener != null) {
+                progressListener.accept(lengthMillis);
+            }
+            return true;
+        } catch (CancellationException ex) {
+            futures.forEach(FFmpegResultFuture::forceStop);
+            throw ex;
+        } catch (IOException | RuntimeException ex) {
+            futures.forEach(FFmpegResultFuture::forceStop);
+            System.err.println("Segmented encode of " + input + " failed, converting it in one piece: " + ex.getMessage());
+            return false;
+        } finally {
+            // Segments that were never waited for are still tracked
+            futures.forEach(running::remove);
+            if (work != null) {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * Encodes from the cut to the next keyframe, copies the rest of the video, and joins the two with the concat
+     * demuxer. The audio is encoded again from the cut, which is cheap next to the video. Only the last step reports
+     * progress.
+     * @return {@code false} if the input can't be cut this way, and needs a full conversion
+     */
+    private boolean smartCut(Path input, Path output, long positionMillis, LongConsumer progressListener) {
+        MediaInfo info = mediaProbe.probe(input.toString());
+        MediaInfo.StreamInfo video = info.getVideoStream();
+        if (video == null || video.getWidth() != 1920 || video.getHeight() != 1080 || video.getFrameRate() <= 0
+                || !ENCODERS.containsKey(video.getCodecName())) {
+            System.out.println("Smart cut needs 1920x1080 h264 or hevc video, converting " + input + " in full");
+            return false;
+        }
+
+        double cutSeconds = positionMillis / 1000.0;
+        double frameSeconds = 1 / video.getFrameRate();
+        double keyframeSeconds = -1;
+        for (double keyframe : mediaProbe.probeKeyframes(input.toString())) {
+            if (keyframe > cutSeconds - frameSeconds / 2) {
+                keyframeSeconds = keyframe;
+                break;
+            }
+        }
+        if (keyframeSeconds < 0) {
+            System.out.println("No keyframe after the cut in " + input + ", converting it in full");
+            return false;
+        }
+
+        Path work = null;
+        try {
+            work = Files.createTempDirectory("smartcut");
+            Path tail;
+            if (keyframeSeconds <= frameSeconds / 2) {
+                // The first frame is the keyframe, so the whole video is copied; the segment muxer would split at
+                // the next keyframe instead, and lose this one's group of pictures
+                tail = input;
+            } else {
+                tail = work.resolve("tail.mp4");
+                splitAtKeyframe(input, work, tail, keyframeSeconds - frameSeconds / 2);
+            }
+
+            List<Path> parts = new ArrayList<>();
+            if (keyframeSeconds - cutSeconds >= frameSeconds / 2) {
+                Path head = work.resolve("head.mp4");
+                encodeHead(input, head, video, cutSeconds, keyframeSeconds - cutSeconds - frameSeconds / 2);
+                if (!sameParameters(video, mediaProbe.probe(head.toString()).getVideoStream())) {
+                    System.out.println("Encoded frames don't match the parameters of " + input + ", converting it in full");
+                    return false;
+                }
+                parts.add(head);
+            }
+            parts.add(tail);
+
+            join(parts, work, input, positionMillis, output, progressListener);
+            // The copied frames must decode with their own parameter sets, not the encoded head's
+            verifyDecodes(output, keyframeSeconds - cutSeconds + VERIFY_SECONDS);
+            return true;
+        } catch (CancellationException ex) {
+            throw ex;
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Smart cut of " + input + " failed, converting it in full: " + ex.getMessage());
+            return false;
+        } finally {
+            if (work != null) {
+                deleteRecursively(work);
+            }
+        }
+    }
+
+    /**
+     * Copies the video from the first keyframe after {@code splitSeconds} to the end.
+     */
+    private void splitAtKeyframe(Path input, Path work, Path tail, double splitSeconds) throws IOException {
+        // The segment muxer splits at the first keyframe after the given time
+        await(FFmpeg.atPath()
+                .addInput(UrlInput.fromPath(input))
+                .setOverwriteOutput(true)
+                .addArguments("-map", "0:v:0")
+                .addArguments("-c", "copy")
+                .addOutput(UrlOutput.toUrl(work.resolve("part%d.mp4").toString())
+                        .setFormat("segment")
+                        .addArguments("-segment_format", "mp4")
+                        .addArguments("-segment_times", String.format("%.6f", splitSeconds))
+                        .addArguments("-reset_timestamps", "1"))
+                .executeAsync());
+        Files.move(work.resolve("part1.mp4"), tail);
+    }
+
+    /**
+     * Joins video-only parts with the concat demuxer, without encoding them again, and adds the input's audio from the
+     * cut.
+     * <p>
+     * An MP4 has one set of parameter sets for its whole video track, and parts encoded separately have different
+     * ones. The parts are rewritten as MPEG-TS first, which puts each part's parameter sets in front of its keyframes,
+     * and the output uses a sample entry that allows them there, so every part decodes with its own.
+     */
+    private void join(List<Path> parts, Path work, Path input, long positionMillis, Path output, LongConsumer progressListener)
+            throws IOException {
+        MediaInfo.StreamInfo video = mediaProbe.probe(parts.get(0).toString()).getVideoStream();
+        String codecName = video != null ? video.getCodecName() : null;
+        Path list = work.resolve("parts.txt");
+        StringBuilder listText = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            Path stream = work.resolve("join" + i + ".ts");
+            UrlOutput streamOutput = UrlOutput.toUrl(stream.toString())
+                    .setFormat("mpegts")
+                    .addArguments("-map", "0:v:0")
+                    .addArguments("-c", "copy");
+            if (ANNEX_B_FILTERS.containsKey(codecName)) {
+                streamOutput.addArguments("-bsf:v", ANNEX_B_FILTERS.get(codecName));
+            }
+            await(FFmpeg.atPath()
+                    .addInput(UrlInput.fromPath(parts.get(i)))
+                    .setOverwriteOutput(true)
+                    .addOutput(streamOutput)
+                    .executeAsync());
+            listText.append("file '").append(stream.toAbsolutePath().toString().replace("'", "'\\''")).append("'\n");
+        }
+        Files.writeString(list, listText);
+
+        FFmpeg ffmpeg = FFmpeg.atPath()
+                .addInput(UrlInput.fromPath(list)
+                        .setFormat("concat")
+                        .addArguments("-safe", "0"))
+                .addInput(UrlInput.fromPath(input)
+                        .setPosition(positionMillis))
+                .setOverwriteOutput(true)
+                .addArguments("-map", "0:v")
+                .addArguments("-map", "1:a:0?")
+                .addArguments("-c:v", "copy")
+                .addArguments("-c:a", "aac")
+                .addArguments("-movflags", "faststart")
+                .addArgument("-shortest")
+                .addOutput(UrlOutput.toUrl(output.toString()));
+        if (IN_BAND_TAGS.containsKey(codecName)) {
+            ffmpeg.addArguments("-tag:v", IN_BAND_TAGS.get(codecName));
+        }
+        if (progressListener != null) {
+            ffmpeg.setProgressListener(progress -> progressListener.accept(progress.getTimeMillis()));
+        }
+        await(ffmpeg.executeAsync());
+    }
+
+    /**
+     * Decodes the start of a joined output, failing on the first error in the video.
+     * @throws IllegalStateException if the video doesn't decode cleanly
+     */
+    private void verifyDecodes(Path output, double durationSeconds) {
+        await(FFmpeg.atPath()
+                .addArgument("-xerror")
+                .addInput(UrlInput.fromPath(output)
+                        .addArguments("-err_detect", "explode")
+                        .addArguments("-t", String.format("%.6f", durationSeconds)))
+                .addArguments("-map", "0:v:0")
+                .addOutput(new NullOutput())
+                .executeAsync());
+    }
+
+    /**
+     * Encodes the frames from the cut up to the keyframe with the same codec, profile, level and pixel format as the
+     * input.
+     */
+    private void encodeHead(Path input, Path head, MediaInfo.StreamInfo video, double cutSeconds, double durationSeconds) {
+        UrlOutput output = UrlOutput.toUrl(head.toString())
+                .addArguments("-t", String.format("%.6f", durationSeconds))
+                .addArguments("-map", "0:v:0")
+                .addArguments("-c:v", ENCODERS.get(video.getCodecName()))
+                .addArguments("-crf", "16")
+                .addArguments("-r", String.format("%.6f", video.getFrameRate()));
+        if (video.getPixelFormat() != null) {
+            output.addArguments("-pix_fmt", video.getPixelFormat());
+        }
+        String profile = encoderProfile(video.getProfile());
+        if (profile != null) {
+            output.addArguments("-profile:v", profile);
+        }
+        String level = encoderLevel(video);
+        if (level != null) {
+            if ("hevc".equals(video.getCodecName())) {
+                // libx265 only takes the level through its own parameters
+                output.addArguments("-x265-params", "level-idc=" + level);
+            } else {
+                output.addArguments("-level:v", level);
+            }
+        }
+        await(FFmpeg.atPath()
+                .addInput(UrlInput.fromPath(input)
+                        .addArguments("-ss", String.format("%.6f", cutSeconds)))
+                .setOverwriteOutput(true)
+                .addOutput(output)
+                .executeAsync());
+    }
+
+    /**
+     * @return the encoder's name for a profile reported by ffprobe, or {@code null} to leave it to the encoder
+     */
+    private static String encoderProfile(String profile) {
+        if (profile == null) {
+            return null;
+        }
+        switch (profile) {
+            case "Baseline":
+            case "Constrained Baseline":
+                return "baseline";
+            case "Main":
+                return "main";
+            case "High":
+                return "high";
+            case "High 10":
+                return "high10";
+            case "Main 10":
+                return "main10";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the encoder's name for the level reported by ffprobe, or {@code null} to leave it to the encoder
+     */
+    private static String encoderLevel(MediaInfo.StreamInfo video) {
+        if (video.getLevel() <= 0) {
+            return null;
+        }
+        switch (video.getCodecName()) {
+            case "h264":
+                return String.format(Locale.ROOT, "%.1f", video.getLevel() / 10.0);
+            case "hevc":
+                // ffprobe reports hevc levels multiplied by 30
+                return String.format(Locale.ROOT, "%.1f", video.getLevel() / 30.0);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return whether frames encoded with these parameters can be joined with the source's, which needs parameter
+     * sets the same decoder setup accepts
+     */
+    private static boolean sameParameters(MediaInfo.StreamInfo source, MediaInfo.StreamInfo encoded) {
+        return encoded != null
+                && Objects.equals(source.getCodecName(), encoded.getCodecName())
+                && source.getWidth() == encoded.getWidth()
+                && source.getHeight() == encoded.getHeight()
+                && Objects.equals(source.getPixelFormat(), encoded.getPixelFormat())
+                && Objects.equals(source.getProfile(), encoded.getProfile())
+                && source.getLevel() == encoded.getLevel();
+    }
+
+    /**
+     * Stops every ffmpeg process this cutter is running. The cut in progress, and any started afterwards, throw a
+     * {@link CancellationException}.
+     */
+    public void cancel() {
+        cancelled = true;
+        running.forEach(FFmpegResultFuture::forceStop);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private FFmpegResultFuture track(FFmpegResultFuture future) {
+        running.add(future);
+        if (cancelled) {
+            future.forceStop();
+        }
+        return future;
+    }
+
+    /**
+     * Waits for an ffmpeg process, which {@link #cancel()} can stop in the meantime.
+     */
+    private void await(FFmpegResultFuture future) {
+        track(future);
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            future.forceStop();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while running ffmpeg");
+        } catch (ExecutionException ex) {
+            checkCancelled();
+            throw new IllegalStateException("ffmpeg failed", ex.getCause());
+        } finally {
+            running.remove(future);
+        }
+        checkCancelled();
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Conversion was cancelled");
+        }
+    }
+
+    private static void deleteRecursively(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ex) {
+            System.err.println("Unable to remove " + directory + ": " + ex.getMessage());
+        }
+    }
+
+    public boolean isSmartCut() {
+        return smartCut;
+    }
+
+    /**
+     * @param smartCut whether to copy the video after the first keyframe instead of converting all of it, when the
+     * input is already 1920x1080
+     */
+    public void setSmartCut(boolean smartCut) {
+        this.smartCut = smartCut;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @param segments how many segments to split a conversion into and encode at once, or 1 to use a single process
+     */
+    public void setSegments(int segments) {
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * @return a segment count that keeps every core busy without starving each encoder of threads
+     */
+    public static int defaultSegments() {
+        return Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors() / 2));
+    }
+}
@@ -0,0 +1,183 @@
+package bandautocut.clap.detect;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Min, max and RMS summaries of a sample stream at power-of-two decimation levels.
+ * Level 0 summarizes 16 samples per bin, and every level above halves the number of bins,
+ * so any range can be summarized from a handful of bins.
+ */
+public class WaveformPyramid {
+
+    /** log2 of the number of samples in a level 0 bin. */
+    static final int BASE_SHIFT = 4;
+
+    private final int length;
+    private final short[][] min;
+    private final short[][] max;
+    private final short[][] rms;
+
+    private WaveformPyramid(int length, short[][] min, short[][] max, short[][] rms) {
+        this.length = length;
+        this.min = min;
+        this.max = max;
+        this.rms = rms;
+    }
+
+    public static WaveformPyramid build(ShortBuffer samples) {
+        Builder builder = new Builder(samples.remaining());
+        builder.samplesDecoded(samples.duplicate());
+        return builder.build();
+    }
+
+    /**
+     * @return the number of samples summarized
+     */
+    public int length() {
+        return length;
+    }
+
+    public int levels() {
+        return min.length;
+    }
+
+    /**
+     * @return the number of samples in one bin of the given level
+     */
+    public static int binSize(int level) {
+        return 1 << (BASE_SHIFT + level);
+    }
+
+    /**
+     * Summarizes the samples in {@code [from, to)}, using the coarsest level whose bins fit in the range.
+     * Bins that only partially overlap the range are included whole.
+     * @param out receives the minimum, maximum and RMS of the range
+     */
+    public void summarize(int from, int to, int[] out) {
+        from = Math.max(0, from);
+        to = Math.min(length, to);
+        if (from >= to || min.length == 0) {
+            out[0] = out[1] = out[2] = 0;
+            return;
+        }
+
+        int span = to - from;
+        int level = Math.max(0, Math.min(min.length - 1, 31 - Integer.numberOfLeadingZeros(span) - BASE_SHIFT));
+        int shift = BASE_SHIFT + level;
+        int firstBin = from >>> shift;
+        int lastBin = Math.min(min[level].length - 1, (to - 1) >>> shift);
+
+        int lo = Short.MAX_VALUE;
+        int hi = Short.MIN_VALUE;
+        long squares = 0;
+        for (int bin = firstBin; bin <= lastBin; bin++) {
+            lo = Math.min(lo, min[level][bin]);
+            hi = Math.max(hi, max[level][bin]);
+            int r = rms[level][bin];
+            squares += (long) r * r;
+        }
+        out[0] = lo;
+        out[1] = hi;
+        out[2] = (int) Math.sqrt(squares / (double) (lastBin - firstBin + 1));
+    }
+
+    /**
+     * Builds a pyramid from samples as they are decoded.
+     */
+    public static class Builder implements SampleStreamListener {
+
+        private short[] min;
+        private short[] max;
+        private short[] rms;
+        private int bins;
+        private int length;
+
+        private int binCount;
+        private int binMin = Short.MAX_VALUE;
+        private int binMax = Short.MIN_VALUE;
+        private long binSquares;
+
+        /**
+         * @param expectedSamples the expected number of samples, used to size the level 0 arrays
+         */
+        public Builder(int expectedSamples) {
+            int capacity = Math.max(16, (expectedSamples >>> BASE_SHIFT) + 1);
+            min = new short[capacity];
+            max = new short[capacity];
+            rms = new short[capacity];
+        }
+
+        @Override
+        public boolean samplesDecoded(ShortBuffer samples) {
+            int end = samples.limit();
+            for (int i = samples.position(); i < end; i++) {
+                int sample = samples.get(i);
+                binMin = Math.min(binMin, sample);
+                binMax = Math.max(binMax, sample);
+                binSquares += sample * sample;
+                if (++binCount == (1 << BASE_SHIFT)) {
+                    finishBin();
+                }
+            }
+            length += samples.remaining();
+            return true;
+        }
+
+        private void finishBin() {
+            if (bins == min.length) {
+                int capacity = min.length * 2;
+                min = Arrays.copyOf(min, capacity);
+                max = Arrays.copyOf(max, capacity);
+                rms = Arrays.copyOf(rms, capacity);
+            }
+            min[bins] = (short) binMin;
+            max[bins] = (short) binMax;
+            rms[bins] = (short) Math.min(Short.MAX_VALUE, Math.sqrt(binSquares / (double) binCount));
+            bins++;
+
+            binCount = 0;
+            binMin = Short.MAX_VALUE;
+            binMax = Short.MIN_VALUE;
+            binSquares = 0;
+        }
+
+        public WaveformPyramid build() {
+            if (binCount > 0) {
+                finishBin();
+            }
+
+            int levels = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, bins)));
+            short[][] mins = new short[levels][];
+            short[][] maxes = new short[levels][];
+            short[][] rmses = new short[levels][];
+            mins[0] = Arrays.copyOf(min, bins);
+            maxes[0] = Arrays.copyOf(max, bins);
+            rmses[0] = Arrays.copyOf(rms, bins);
+
+            for (int level = 1; level < levels; level++) {
+                short[] lowerMin = mins[level - 1];
+                short[] lowerMax = maxes[level - 1];
+                short[] lowerRms = rmses[level - 1];
+                int levelBins = (lowerMin.length + 1) / 2;
+                short[] levelMin = new short[levelBins];
+                short[] levelMax = new short[levelBins];
+                short[] levelRms = new short[levelBins];
+                for (int bin = 0; bin < levelBins; bin++) {
+                    int a = bin * 2;
+                    int b = Math.min(a + 1, lowerMin.length - 1);
+                    levelMin[bin] = (short) Math.min(lowerMin[a], lowerMin[b]);
+                    levelMax[bin] = (short) Math.max(lowerMax[a], lowerMax[b]);
+                    double squares = ((double) lowerRms[a] * lowerRms[a] + (double) lowerRms[b] * lowerRms[b]) / 2;
+                    levelRms[bin] = (short) Math.sqrt(squares);
+                }
+                mins[level] = levelMin;
+                maxes[level] = levelMax;
+                rmses[level] = levelRms;
+            }
+
+            min = max = rms = null;
+            return new WaveformPyramid(length, mins, maxes, rmses);
+        }
+    }
+}